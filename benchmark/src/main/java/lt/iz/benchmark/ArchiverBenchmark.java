@@ -0,0 +1,65 @@
+package lt.iz.benchmark;
+
+import lt.iz.file.AdaptiveCodecPolicy;
+import lt.iz.file.Archiver;
+import lt.iz.file.Codec;
+import lt.iz.file.CodecPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link Archiver#compress} of whole dataset by compression threads count and codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ArchiverBenchmark {
+
+    @Param({"eventstore", "mongo", "tiny"})
+    public String shape;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    @Param({"default", "fast", "high", "store", "auto"})
+    public String codec;
+
+    private Dataset dataset;
+    private File archive;
+    private CodecPolicy codecPolicy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = Dataset.prepare(shape);
+        archive = new File(dataset.getWorkDir(), "compress.zip");
+        codecPolicy = resolveCodecPolicy(codec);
+    }
+
+    @Benchmark
+    public void compress(Throughput throughput) throws IOException {
+        Archiver.compress(archive, "compress", dataset.getSources(), null, threads, codecPolicy);
+        throughput.add(dataset);
+    }
+
+    static CodecPolicy resolveCodecPolicy(String codec) {
+        if ("fast".equals(codec)) return CodecPolicy.of(Codec.FAST);
+        if ("high".equals(codec)) return CodecPolicy.of(Codec.HIGH);
+        if ("store".equals(codec)) return CodecPolicy.of(Codec.STORE);
+        if ("auto".equals(codec)) return new AdaptiveCodecPolicy();
+        return CodecPolicy.of(Codec.DEFAULT);
+    }
+}
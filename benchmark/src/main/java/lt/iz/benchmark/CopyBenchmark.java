@@ -0,0 +1,65 @@
+package lt.iz.benchmark;
+
+import lt.iz.file.FileCopier;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link FileCopier} by threads count against {@link FileUtils#copyDirectory(File, File)} baseline used by restore before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"eventstore", "mongo", "tiny"})
+    public String shape;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    private Dataset dataset;
+    private File copyDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = Dataset.prepare(shape);
+        copyDir = new File(dataset.getWorkDir(), "copy");
+    }
+
+    @Benchmark
+    public void fileCopier(Throughput throughput) throws IOException {
+        FileCopier copier = new FileCopier(threads);
+        for (Map.Entry<String, File> source : dataset.getSources().entrySet()) {
+            copier.copy(source.getValue(), new File(copyDir, source.getKey()), null);
+        }
+        throughput.add(dataset);
+    }
+
+    /**
+     * Baseline is single threaded, it runs once for every threads count.
+     */
+    @Benchmark
+    public void copyDirectoryBaseline(Throughput throughput) throws IOException {
+        for (Map.Entry<String, File> source : dataset.getSources().entrySet()) {
+            FileUtils.copyDirectory(source.getValue(), new File(copyDir, source.getKey()));
+        }
+        throughput.add(dataset);
+    }
+}
@@ -0,0 +1,162 @@
+package lt.iz.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark dataset shaped like nano databases: {@code eventstore} directory of chunk files with compressible event
+ * records, {@code mongo} directory of a few huge WiredTiger-like files of mostly incompressible blocks and
+ * {@code tiny} directory of many small files, {@code mixed} has all of them. Sizes are read from system properties
+ * and default to production shape, datasets are generated once under {@code nano.benchmark.dir} and reused.
+ */
+public class Dataset {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private static final int CHUNKS = Integer.getInteger("nano.benchmark.chunks", 8);
+    private static final int CHUNK_MB = Integer.getInteger("nano.benchmark.chunk-mb", 256);
+    private static final int HUGE = Integer.getInteger("nano.benchmark.huge", 2);
+    private static final int HUGE_MB = Integer.getInteger("nano.benchmark.huge-mb", 2048);
+    private static final int TINY = Integer.getInteger("nano.benchmark.tiny", 20000);
+    private static final int TINY_KB = Integer.getInteger("nano.benchmark.tiny-kb", 2);
+
+    private final File dir;
+    private final Map<String, File> sources = new LinkedHashMap<>();
+    private long bytes;
+    private long files;
+
+    private Dataset(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns dataset of given shape, dataset is generated if it does not exist yet.
+     */
+    public static Dataset prepare(String shape) throws IOException {
+        String description = shape + "-" + CHUNKS + "x" + CHUNK_MB + "m-" + HUGE + "x" + HUGE_MB + "m-" + TINY + "x" + TINY_KB + "k";
+        File baseDir = new File(System.getProperty("nano.benchmark.dir", System.getProperty("java.io.tmpdir")), "nano-db-benchmark");
+        Dataset dataset = new Dataset(new File(baseDir, description));
+        File ready = new File(dataset.dir, "ready");
+
+        boolean mixed = "mixed".equals(shape);
+        if (mixed || "eventstore".equals(shape)) dataset.sources.put("es", new File(dataset.dir, "es"));
+        if (mixed || "mongo".equals(shape)) dataset.sources.put("mongo", new File(dataset.dir, "mongo"));
+        if (mixed || "tiny".equals(shape)) dataset.sources.put("tiny", new File(dataset.dir, "tiny"));
+        if (dataset.sources.isEmpty()) throw new IllegalArgumentException("Unknown dataset shape: " + shape);
+
+        if (!ready.exists()) {
+            for (Map.Entry<String, File> source : dataset.sources.entrySet()) {
+                Files.createDirectories(source.getValue().toPath());
+                if ("es".equals(source.getKey())) generateChunks(source.getValue());
+                if ("mongo".equals(source.getKey())) generateHugeFiles(source.getValue());
+                if ("tiny".equals(source.getKey())) generateTinyFiles(source.getValue());
+            }
+            Files.createFile(ready.toPath());
+        }
+        for (File source : dataset.sources.values()) dataset.measure(source);
+        return dataset;
+    }
+
+    public Map<String, File> getSources() {
+        return sources;
+    }
+
+    /**
+     * Scratch directory next to the dataset for archives, copies and extracted files.
+     */
+    public File getWorkDir() throws IOException {
+        File workDir = new File(dir, "work");
+        Files.createDirectories(workDir.toPath());
+        return workDir;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    private void measure(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) measure(child);
+        } else {
+            bytes += file.length();
+            files++;
+        }
+    }
+
+    private static void generateChunks(File dir) throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < CHUNKS; i++) {
+            try (OutputStream out = open(new File(dir, String.format("chunk-%06d.000000", i)))) {
+                for (int mb = 0; mb < CHUNK_MB; mb++) out.write(eventBlock(random, BLOCK_SIZE));
+            }
+        }
+        try (OutputStream out = open(new File(dir, "writer.chk"))) {
+            out.write(new byte[8]);
+        }
+    }
+
+    private static void generateHugeFiles(File dir) throws IOException {
+        Random random = new Random(2);
+        for (int i = 0; i < HUGE; i++) {
+            try (OutputStream out = open(new File(dir, "collection-" + i + "-1234567890.wt"))) {
+                for (int mb = 0; mb < HUGE_MB; mb++) out.write(wiredTigerBlock(random));
+            }
+        }
+    }
+
+    private static void generateTinyFiles(File dir) throws IOException {
+        Random random = new Random(3);
+        for (int i = 0; i < TINY; i++) {
+            File subDir = new File(dir, String.valueOf(i % 100));
+            Files.createDirectories(subDir.toPath());
+            try (OutputStream out = open(new File(subDir, "file-" + i + ".json"))) {
+                out.write(eventBlock(random, TINY_KB * 1024));
+            }
+        }
+    }
+
+    /**
+     * JSON event records with random ids and values, compresses several times like EventStore chunks.
+     */
+    private static byte[] eventBlock(Random random, int size) {
+        StringBuilder records = new StringBuilder(size + 256);
+        while (records.length() < size) {
+            records.append("{\"eventId\":\"").append(Long.toHexString(random.nextLong()))
+                .append("\",\"eventType\":\"Order").append(random.nextInt(20) == 0 ? "Cancelled" : "Updated")
+                .append("\",\"data\":{\"orderId\":").append(random.nextInt(1000000))
+                .append(",\"amount\":").append(random.nextInt(100000) / 100.0)
+                .append(",\"customer\":\"customer-").append(random.nextInt(5000)).append("\"}}\n");
+        }
+        byte[] block = records.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] sized = new byte[size];
+        System.arraycopy(block, 0, sized, 0, size);
+        return sized;
+    }
+
+    /**
+     * Mostly random bytes with some record text, like WiredTiger pages compressed with snappy.
+     */
+    private static byte[] wiredTigerBlock(Random random) {
+        byte[] block = new byte[BLOCK_SIZE];
+        random.nextBytes(block);
+        byte[] records = eventBlock(random, BLOCK_SIZE / 4);
+        System.arraycopy(records, 0, block, 0, records.length);
+        return block;
+    }
+
+    private static OutputStream open(File file) throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    }
+}
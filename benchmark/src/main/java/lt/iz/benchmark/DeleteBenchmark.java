@@ -0,0 +1,67 @@
+package lt.iz.benchmark;
+
+import lt.iz.file.FileCopier;
+import lt.iz.file.FileDeleter;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link FileDeleter#delete(File)} by threads count against {@link FileUtils#deleteDirectory(File)} baseline.
+ * Tree to delete is copied from dataset before every invocation, copy is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"eventstore", "tiny"})
+    public String shape;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    private Dataset dataset;
+    private File deleteDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = Dataset.prepare(shape);
+        deleteDir = new File(dataset.getWorkDir(), "delete");
+    }
+
+    @Setup(Level.Invocation)
+    public void copyTree() throws IOException {
+        FileCopier copier = new FileCopier(FileCopier.DEFAULT_THREADS);
+        for (Map.Entry<String, File> source : dataset.getSources().entrySet()) {
+            copier.copy(source.getValue(), new File(deleteDir, source.getKey()), null);
+        }
+    }
+
+    @Benchmark
+    public void fileDeleter(Throughput throughput) throws IOException {
+        new FileDeleter(threads).delete(deleteDir);
+        throughput.add(dataset);
+    }
+
+    @Benchmark
+    public void deleteDirectoryBaseline(Throughput throughput) throws IOException {
+        FileUtils.deleteDirectory(deleteDir);
+        throughput.add(dataset);
+    }
+}
@@ -0,0 +1,59 @@
+package lt.iz.benchmark;
+
+import lt.iz.file.Archiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link Archiver#extract(File, Map)} of archive compressed with given codec, as stream and staged restores do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({"eventstore", "mongo", "tiny"})
+    public String shape;
+
+    @Param({"default", "fast", "store"})
+    public String codec;
+
+    private Dataset dataset;
+    private File archive;
+    private Map<String, File> targets;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = Dataset.prepare(shape);
+        archive = new File(dataset.getWorkDir(), "extract-" + codec + ".zip");
+        Archiver.compress(archive, "extract-" + codec, dataset.getSources(), null, Archiver.DEFAULT_THREADS,
+            ArchiverBenchmark.resolveCodecPolicy(codec));
+
+        targets = new LinkedHashMap<>();
+        for (String name : dataset.getSources().keySet()) {
+            targets.put(name, new File(new File(dataset.getWorkDir(), "extracted"), name));
+        }
+    }
+
+    @Benchmark
+    public void extract(Throughput throughput) throws IOException {
+        Archiver.extract(archive, targets);
+        throughput.add(dataset);
+    }
+}
@@ -3,6 +3,9 @@ package lt.iz;
 public enum Action {
 
     BACKUP,
-    RESTORE
+    RESTORE,
+    LIST,
+    VERIFY,
+    DAEMON
 
 }
@@ -2,13 +2,40 @@ package lt.iz;
 
 import com.google.common.base.Strings;
 import lt.iz.file.BackupManager;
+import lt.iz.file.BackupMode;
+import lt.iz.file.CodecType;
+import lt.iz.file.CpuLimiter;
+import lt.iz.file.DatabaseType;
+import lt.iz.file.IoLimiter;
+import lt.iz.file.Replicator;
+import lt.iz.file.RestoreMode;
+import lt.iz.file.SparseFiles;
+import lt.iz.file.VolumeLimiter;
 import lt.iz.file.WinBackupManager;
+import lt.iz.service.CommandServiceManager;
 import lt.iz.service.ServiceManager;
+import lt.iz.service.ServiceManagerType;
+import lt.iz.service.SystemdServiceManager;
 import lt.iz.service.WinServiceManager;
+import lt.iz.tracker.Metrics;
 import lt.iz.tracker.TimeTracker;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 
 import static lt.iz.Logger.log;
 
@@ -19,41 +46,145 @@ public class Application {
         new Database("nano-mongo", new File("c:\\development\\mongo"))
     );*/
 
-    public static void main(String[] args) {
-
-        Params params = parseArguments(args);
-        try {
-            ServiceManager serviceManager = new WinServiceManager(params.eventStore.serviceName, params.mongo.serviceName);
-            BackupManager backupManager = new WinBackupManager(params.backupDir, params.eventStore.directory, params.mongo.directory);
+    private static final String CONFIG_STACKS = "stacks";
 
-            TimeTracker processTimeTracker = TimeTracker.start();
+    private static final Set<String> HOST_OPTIONS = new HashSet<>(Arrays.asList("cpu-threads", "parallel-stacks",
+        "io-per-volume", "read-limit", "write-limit", "limit-file", "sparse", "prometheus", "http-port",
+        "http-token-file", "http-restore"));
 
-            serviceManager.stopMongoService();
-            serviceManager.stopEventStoreService();
+    public static void main(String[] args) {
 
+        List<Params> stacks = parseArguments(args);
+        Params host = stacks.get(0);
+        configureLimits(host);
 
-            if (Action.BACKUP.equals(params.action)) {
-                backupManager.backup();
-            } else if (Action.RESTORE.equals(params.action)) {
-                backupManager.restoreLatest();
+        TimeTracker processTimeTracker = TimeTracker.start();
+        try {
+            int parallelStacks = host.parallelStacks == 0 ? stacks.size() : host.parallelStacks;
+            if (Action.DAEMON.equals(host.action)) {
+                runDaemon(stacks, parallelStacks);
+            } else if (host.stack == null) {
+                runStack(host, host.action);
             } else {
-                throw new RuntimeException("Unsupported action: " + params.action);
+                new StackScheduler(parallelStacks).run(stacks, params -> runStack(params, params.action));
             }
 
-            serviceManager.startEventStoreService();
-            serviceManager.startMongoService();
-
             log("*** SUCCESS ***", processTimeTracker);
 
         } catch (IOException | InterruptedException e) {
             log("*** FAILURE: " + e.getMessage());
             throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            writePrometheus(host);
+        }
+    }
+
+    /**
+     * Applies limits shared by all stacks of the JVM, options of the first stack are the same for every stack.
+     */
+    private static void configureLimits(Params params) {
+        CpuLimiter.setPermits(params.cpuThreads);
+        VolumeLimiter.setPermitsPerVolume(params.ioPerVolume);
+        IoLimiter.setLimits(params.readLimit, params.writeLimit);
+        if (params.limitFile != null) IoLimiter.watch(params.limitFile);
+        SparseFiles.setEnabled(params.sparse);
+    }
+
+    /**
+     * Runs stacks on their schedules and on requests of control endpoint until daemon is stopped.
+     */
+    private static void runDaemon(List<Params> stacks, int parallelStacks) throws IOException, InterruptedException {
+        Params host = stacks.get(0);
+        if (host.httpPort == 0 && stacks.stream().allMatch(params -> params.schedule == null))
+            throw new IllegalArgumentException("Illegal option schedule: DAEMON needs schedule of some stack or http-port.");
+
+        Daemon daemon = new Daemon(stacks, parallelStacks, (params, action) -> {
+            try {
+                runStack(params, action);
+            } finally {
+                writePrometheus(host);
+            }
+        });
+        if (host.httpPort != 0 && host.httpTokenFile == null)
+            throw new IllegalArgumentException("Illegal option http-token-file: control endpoint needs token file.");
+        ControlServer controlServer = host.httpPort == 0 ? null : new ControlServer(daemon, host.httpPort,
+            ControlServer.readToken(host.httpTokenFile), host.httpRestore);
+        daemon.start();
+        if (controlServer != null) controlServer.start();
+        try {
+            daemon.await();
+        } finally {
+            if (controlServer != null) controlServer.stop();
+        }
+    }
+
+    private static void runStack(Params params, Action action) throws IOException, InterruptedException {
+        ServiceManager serviceManager = createServiceManager(params);
+        BackupManager backupManager = new WinBackupManager(params, serviceManager);
+
+        Metrics.clear(params.stack);
+        Instant started = Instant.now();
+        TimeTracker timeTracker = TimeTracker.start();
+        boolean success = false;
+        try {
+            run(action, backupManager);
+            success = true;
+        } finally {
+            Metrics.recordRun(params.stack, action.name().toLowerCase(), success, started, timeTracker);
+            writeReport(params);
+        }
+    }
+
+    private static void run(Action action, BackupManager backupManager) throws IOException, InterruptedException {
+        if (Action.BACKUP.equals(action)) {
+            backupManager.backup();
+        } else if (Action.RESTORE.equals(action)) {
+            backupManager.restoreLatest();
+        } else if (Action.LIST.equals(action)) {
+            backupManager.list();
+        } else if (Action.VERIFY.equals(action)) {
+            backupManager.verify();
+        } else {
+            throw new RuntimeException("Unsupported action: " + action);
+        }
+    }
+
+    /**
+     * Writes JSON run report, failure to write it is logged and does not fail the run.
+     */
+    private static void writeReport(Params params) {
+        try {
+            if (params.report != null) Metrics.writeReport(params.report, params.stack);
+        } catch (IOException e) {
+            log("Could not write run report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes Prometheus metrics of all stacks, failure to write them is logged and does not fail the run.
+     */
+    private static void writePrometheus(Params params) {
+        try {
+            if (params.prometheus != null) Metrics.writePrometheus(params.prometheus);
+        } catch (IOException e) {
+            log("Could not write Prometheus metrics: " + e.getMessage());
+        }
+    }
+
+    private static ServiceManager createServiceManager(Params params) {
+        if (ServiceManagerType.SYSTEMD.equals(params.serviceManager)) {
+            return new SystemdServiceManager(params.eventStore, params.mongo);
+        } else if (ServiceManagerType.COMMAND.equals(params.serviceManager)) {
+            return new CommandServiceManager(params.eventStore, params.mongo, params.serviceStartCommand,
+                params.serviceStopCommand, params.serviceStatusCommand);
         }
+        return new WinServiceManager(params.eventStore, params.mongo);
     }
 
-    private static Params parseArguments(String[] args) {
-        if (args.length != 6)
-            throw new IllegalArgumentException("Illegal input arguments. 6 arguments must be passed.");
+    private static List<Params> parseArguments(String[] args) {
+        if (args.length > 1 && args[1].startsWith("--")) return parseConfig(args);
+        if (args.length < 6)
+            throw new IllegalArgumentException("Illegal input arguments. At least 6 arguments or --config option must be passed.");
         Action action = Action.valueOf(args[0].toUpperCase());
 
         if (Strings.isNullOrEmpty(args[1]))
@@ -63,6 +194,7 @@ public class Application {
         if (!(new File(args[3]).exists()))
             throw new IllegalArgumentException("Illegal 4 argument: eventStore database directory does not exists.");
         Database eventStore = new Database(args[1], new File(args[3]));
+        eventStore.skip = WinBackupManager.DEFAULT_EVENTSTORE_SKIP;
 
         if (Strings.isNullOrEmpty(args[2]))
             throw new IllegalArgumentException("Illegal 3 argument: mongo service name not specified.");
@@ -77,7 +209,227 @@ public class Application {
         if (!(new File(args[5]).exists()))
             throw new IllegalArgumentException("Illegal 6 argument: backup store directory does not exists.");
 
-        return new Params(action, new File(args[5]), eventStore, mongo);
+        Params params = new Params(action, new File(args[5]), eventStore, mongo);
+
+        Map<String, String> options = parseOptions(args, 6);
+        if (options.containsKey("config"))
+            throw new IllegalArgumentException("Illegal option config: databases are already given by arguments.");
+        applyOptions(params, options);
+        return Collections.singletonList(params);
+    }
+
+    /**
+     * Parses {@code --config} properties file of stacks. Every stack is given by {@code <stack>.<name>=value}
+     * properties: {@code eventstore-service}, {@code mongo-service}, {@code eventstore-dir}, {@code mongo-dir},
+     * {@code backup-dir} and any option. Properties without stack prefix are options of all stacks, command line
+     * options override them and are overridden by stack properties.
+     */
+    private static List<Params> parseConfig(String[] args) {
+        Action action = Action.valueOf(args[0].toUpperCase());
+        Map<String, String> options = parseOptions(args, 1);
+        String config = options.remove("config");
+        if (Strings.isNullOrEmpty(config))
+            throw new IllegalArgumentException("Illegal input arguments. At least 6 arguments or --config option must be passed.");
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(config)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Illegal option config: could not read " + config + ": " + e.getMessage());
+        }
+
+        Map<String, String> defaults = new HashMap<>();
+        Map<String, Map<String, String>> stackOptions = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (key.indexOf('.') < 0) {
+                defaults.put(key.toLowerCase(), value);
+            } else {
+                stackOptions.computeIfAbsent(key.substring(0, key.indexOf('.')), name -> new HashMap<>())
+                    .put(key.substring(key.indexOf('.') + 1).toLowerCase(), value);
+            }
+        }
+
+        String names = options.containsKey(CONFIG_STACKS) ? options.remove(CONFIG_STACKS) : defaults.remove(CONFIG_STACKS);
+        defaults.remove(CONFIG_STACKS);
+        List<String> stackNames = names == null ? new ArrayList<>(stackOptions.keySet()) : parseList(names);
+        if (stackNames.isEmpty())
+            throw new IllegalArgumentException("Illegal option config: no stacks configured in " + config + ".");
+
+        List<Params> stacks = new ArrayList<>();
+        Set<File> backupDirs = new HashSet<>();
+        for (String name : stackNames) {
+            Map<String, String> values = stackOptions.get(name);
+            if (values == null)
+                throw new IllegalArgumentException("Illegal stack " + name + ": not configured in " + config + ".");
+            for (String key : values.keySet()) {
+                if (HOST_OPTIONS.contains(key))
+                    throw new IllegalArgumentException("Illegal option " + key + " of stack " + name
+                        + ": it applies to all stacks and must be given without stack prefix.");
+            }
+            Map<String, String> merged = new HashMap<>(defaults);
+            merged.putAll(options);
+            merged.putAll(values);
+            Params params = parseStack(action, name, merged);
+            if (!backupDirs.add(params.backupDir.getAbsoluteFile()))
+                throw new IllegalArgumentException("Illegal stack " + name + ": backup-dir is used by another stack.");
+            stacks.add(params);
+        }
+        return stacks;
+    }
+
+    private static Params parseStack(Action action, String name, Map<String, String> options) {
+        Database eventStore = new Database(parseRequired(options, name, "eventstore-service"),
+            parseDirectory(options, name, "eventstore-dir"));
+        eventStore.skip = WinBackupManager.DEFAULT_EVENTSTORE_SKIP;
+        Database mongo = new Database(parseRequired(options, name, "mongo-service"),
+            parseDirectory(options, name, "mongo-dir"));
+
+        Params params = new Params(action, parseDirectory(options, name, "backup-dir"), eventStore, mongo);
+        params.stack = name;
+        applyOptions(params, options);
+        return params;
+    }
+
+    private static String parseRequired(Map<String, String> options, String stack, String name) {
+        String value = options.remove(name);
+        if (Strings.isNullOrEmpty(value))
+            throw new IllegalArgumentException("Illegal stack " + stack + ": " + name + " not specified.");
+        return value;
+    }
+
+    private static File parseDirectory(Map<String, String> options, String stack, String name) {
+        File directory = new File(parseRequired(options, stack, name));
+        if (!directory.exists())
+            throw new IllegalArgumentException("Illegal stack " + stack + ": " + name + " " + directory + " does not exists.");
+        return directory;
+    }
+
+    private static void applyOptions(Params params, Map<String, String> options) {
+        if (options.containsKey("backup-mode"))
+            params.backupMode = BackupMode.valueOf(options.remove("backup-mode").toUpperCase());
+        if (options.containsKey("restore-mode"))
+            params.restoreMode = RestoreMode.valueOf(options.remove("restore-mode").toUpperCase());
+        if (options.containsKey("threads"))
+            params.threads = Integer.parseInt(options.remove("threads"));
+        if (params.threads < 1)
+            throw new IllegalArgumentException("Illegal option threads: must be positive.");
+        if (options.containsKey("codec"))
+            params.codec = CodecType.valueOf(options.remove("codec").toUpperCase());
+        if (options.containsKey("copy-threads"))
+            params.copyThreads = Integer.parseInt(options.remove("copy-threads"));
+        if (params.copyThreads < 1)
+            throw new IllegalArgumentException("Illegal option copy-threads: must be positive.");
+        if (options.containsKey("repository-keep"))
+            params.repositoryKeep = Integer.parseInt(options.remove("repository-keep"));
+        if (params.repositoryKeep < 0)
+            throw new IllegalArgumentException("Illegal option repository-keep: must not be negative.");
+        if (options.containsKey("keep-last"))
+            params.keepLast = Integer.parseInt(options.remove("keep-last"));
+        if (options.containsKey("keep-hourly"))
+            params.keepHourly = Integer.parseInt(options.remove("keep-hourly"));
+        if (options.containsKey("keep-daily"))
+            params.keepDaily = Integer.parseInt(options.remove("keep-daily"));
+        if (options.containsKey("keep-weekly"))
+            params.keepWeekly = Integer.parseInt(options.remove("keep-weekly"));
+        if (params.keepLast < 0 || params.keepHourly < 0 || params.keepDaily < 0 || params.keepWeekly < 0)
+            throw new IllegalArgumentException("Illegal option keep-last, keep-hourly, keep-daily or keep-weekly: must not be negative.");
+        params.replica = options.remove("replica");
+        params.replicaEndpoint = options.remove("replica-endpoint");
+        if (options.containsKey("replica-region"))
+            params.replicaRegion = options.remove("replica-region");
+        if (options.containsKey("replica-threads"))
+            params.replicaThreads = Integer.parseInt(options.remove("replica-threads"));
+        if (params.replicaThreads < 1)
+            throw new IllegalArgumentException("Illegal option replica-threads: must be positive.");
+        if (options.containsKey("replica-part-size"))
+            params.replicaPartSize = Integer.parseInt(options.remove("replica-part-size"));
+        if (params.replicaPartSize < Replicator.MIN_PART_SIZE_MB)
+            throw new IllegalArgumentException("Illegal option replica-part-size: must be at least "
+                + Replicator.MIN_PART_SIZE_MB + " MB.");
+        if (options.containsKey("cpu-threads"))
+            params.cpuThreads = Integer.parseInt(options.remove("cpu-threads"));
+        if (params.cpuThreads < 1)
+            throw new IllegalArgumentException("Illegal option cpu-threads: must be positive.");
+        if (options.containsKey("parallel-stacks")) {
+            params.parallelStacks = Integer.parseInt(options.remove("parallel-stacks"));
+            if (params.parallelStacks < 1)
+                throw new IllegalArgumentException("Illegal option parallel-stacks: must be positive.");
+        }
+        if (options.containsKey("schedule"))
+            params.schedule = CronSchedule.parse(options.remove("schedule")).toString();
+        if (options.containsKey("http-port"))
+            params.httpPort = Integer.parseInt(options.remove("http-port"));
+        if (params.httpPort < 0 || params.httpPort > 65535)
+            throw new IllegalArgumentException("Illegal option http-port: must be 1-65535.");
+        if (options.containsKey("http-token-file"))
+            params.httpTokenFile = new File(options.remove("http-token-file"));
+        if (options.containsKey("http-restore"))
+            params.httpRestore = Boolean.parseBoolean(options.remove("http-restore"));
+        if (options.containsKey("io-per-volume"))
+            params.ioPerVolume = Integer.parseInt(options.remove("io-per-volume"));
+        if (params.ioPerVolume < 1)
+            throw new IllegalArgumentException("Illegal option io-per-volume: must be positive.");
+        if (options.containsKey("read-limit"))
+            params.readLimit = Integer.parseInt(options.remove("read-limit"));
+        if (params.readLimit < 0)
+            throw new IllegalArgumentException("Illegal option read-limit: must not be negative.");
+        if (options.containsKey("write-limit"))
+            params.writeLimit = Integer.parseInt(options.remove("write-limit"));
+        if (params.writeLimit < 0)
+            throw new IllegalArgumentException("Illegal option write-limit: must not be negative.");
+        if (options.containsKey("limit-file"))
+            params.limitFile = new File(options.remove("limit-file"));
+        if (options.containsKey("service-manager"))
+            params.serviceManager = ServiceManagerType.valueOf(options.remove("service-manager").toUpperCase());
+        params.serviceStartCommand = options.remove("service-start-command");
+        params.serviceStopCommand = options.remove("service-stop-command");
+        params.serviceStatusCommand = options.remove("service-status-command");
+        if (options.containsKey("eventstore-timeout"))
+            params.eventStore.serviceTimeoutInSeconds = Integer.parseInt(options.remove("eventstore-timeout"));
+        if (options.containsKey("mongo-timeout"))
+            params.mongo.serviceTimeoutInSeconds = Integer.parseInt(options.remove("mongo-timeout"));
+        if (options.containsKey("eventstore-skip"))
+            params.eventStore.skip = parseList(options.remove("eventstore-skip"));
+        if (options.containsKey("mongo-skip"))
+            params.mongo.skip = parseList(options.remove("mongo-skip"));
+        params.archive = options.remove("archive");
+        if (options.containsKey("databases")) {
+            params.databases = EnumSet.noneOf(DatabaseType.class);
+            for (String database : options.remove("databases").split(","))
+                params.databases.add(DatabaseType.valueOf(database.trim().toUpperCase()));
+        }
+        params.include = options.remove("include");
+        if (options.containsKey("verify"))
+            params.verify = Boolean.parseBoolean(options.remove("verify"));
+        if (options.containsKey("sparse"))
+            params.sparse = Boolean.parseBoolean(options.remove("sparse"));
+        if (options.containsKey("report"))
+            params.report = new File(options.remove("report"));
+        if (options.containsKey("prometheus"))
+            params.prometheus = new File(options.remove("prometheus"));
+        if (!options.isEmpty())
+            throw new IllegalArgumentException("Unsupported options: " + options.keySet());
+
+    }
+
+    private static List<String> parseList(String value) {
+        List<String> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) values.add(item.trim());
+        }
+        return values;
+    }
+
+    private static Map<String, String> parseOptions(String[] args, int from) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = from; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Illegal option " + arg + ": expected --name=value.");
+            options.put(arg.substring(2, arg.indexOf("=")).toLowerCase(), arg.substring(arg.indexOf("=") + 1));
+        }
+        return options;
     }
 
 }
@@ -0,0 +1,142 @@
+package lt.iz;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lt.iz.Logger.log;
+
+/**
+ * HTTP control endpoint of {@link Daemon} listening on loopback interface only: {@code GET /status} returns status
+ * of stacks, {@code POST /backup}, {@code /restore}, {@code /verify} and {@code /list} with optional
+ * {@code stack=NAME} query parameter start action in background, {@code POST /stop} stops daemon after running
+ * actions finish. Every request must send shared token in {@value #TOKEN_HEADER} header, as loopback interface is
+ * open to other local users and to web pages in browsers of the host. Custom header cannot be sent by cross-origin
+ * page without preflight, which is never allowed. {@code /restore} is served only if enabled.
+ */
+public class ControlServer {
+
+    public static final String TOKEN_HEADER = "X-Nano-Db-Token";
+
+    private final Daemon daemon;
+    private final HttpServer server;
+    private final byte[] token;
+
+    public ControlServer(Daemon daemon, int port, String token, boolean restoreEnabled) throws IOException {
+        if (token == null || token.isEmpty()) throw new IllegalArgumentException("Control endpoint token is empty.");
+        this.daemon = daemon;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/status", exchange -> {
+            if (!authorize(exchange)) return;
+            if (!"GET".equals(exchange.getRequestMethod())) respond(exchange, 405, "Use GET.");
+            else respond(exchange, 200, daemon.getStatus());
+        });
+        for (Action action : new Action[]{Action.BACKUP, Action.RESTORE, Action.VERIFY, Action.LIST}) {
+            server.createContext("/" + action.name().toLowerCase(), exchange -> {
+                if (!authorize(exchange)) return;
+                if (Action.RESTORE.equals(action) && !restoreEnabled) {
+                    respond(exchange, 403, "Restore is not enabled on control endpoint, use option http-restore.");
+                    return;
+                }
+                submit(exchange, action);
+            });
+        }
+        server.createContext("/stop", exchange -> {
+            if (!authorize(exchange)) return;
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Use POST.");
+                return;
+            }
+            respond(exchange, 202, "Daemon stops after running actions finish.");
+            daemon.stop();
+        });
+    }
+
+    public void start() {
+        server.start();
+        log("Control endpoint listens on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Reads control endpoint token from first line of file.
+     */
+    public static String readToken(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        String token = lines.isEmpty() ? "" : lines.get(0).trim();
+        if (token.isEmpty()) throw new IllegalArgumentException("Illegal option http-token-file: " + file + " has no token.");
+        return token;
+    }
+
+    /**
+     * Responds with 401 and returns {@code false} if request has no valid token, token is compared in constant time.
+     */
+    private boolean authorize(HttpExchange exchange) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (header != null && MessageDigest.isEqual(token, header.getBytes(StandardCharsets.UTF_8))) return true;
+        respond(exchange, 401, "Header " + TOKEN_HEADER + " with control endpoint token is required.");
+        return false;
+    }
+
+    private void submit(HttpExchange exchange, Action action) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST.");
+            return;
+        }
+        String stack = parseQuery(exchange.getRequestURI().getRawQuery()).get("stack");
+        if (!daemon.hasStack(stack)) {
+            respond(exchange, 404, stack == null ? "Parameter stack is required." : "Unknown stack " + stack + ".");
+            return;
+        }
+        String name = action.name().toLowerCase() + (stack == null ? "" : " of stack " + stack);
+        if (daemon.submit(stack, action)) {
+            log("Control endpoint started " + name + ".");
+            respond(exchange, 202, "Started " + name + ".");
+        } else {
+            respond(exchange, 409, "Stack is still running other action, " + name + " rejected.");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) return parameters;
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) continue;
+            parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body.endsWith("\n") ? body : body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+            body.startsWith("{") ? "application/json; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package lt.iz;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Cron expression of five fields: minute, hour, day of month, month and day of week (0 or 7 is Sunday). Every field
+ * is {@code *}, number or range {@code a-b}, optionally with step {@code /n}, or comma separated list of them.
+ * Like in cron, if both day of month and day of week are restricted, day matching either of them matches.
+ */
+public class CronSchedule {
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet days;
+    private final BitSet months;
+    private final BitSet weekDays;
+    private final boolean anyDay;
+    private final boolean anyWeekDay;
+
+    private CronSchedule(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59);
+        this.hours = parseField(fields[1], 0, 23);
+        this.days = parseField(fields[2], 1, 31);
+        this.months = parseField(fields[3], 1, 12);
+        this.weekDays = parseField(fields[4], 0, 7);
+        if (weekDays.get(7)) weekDays.set(0);
+        this.anyDay = fields[2].startsWith("*");
+        this.anyWeekDay = fields[4].startsWith("*");
+    }
+
+    public static CronSchedule parse(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5)
+            throw new IllegalArgumentException("Illegal schedule " + expression + ": expected 5 fields.");
+        try {
+            return new CronSchedule(expression, fields);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Illegal schedule " + expression + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the first minute after {@code time} matching the schedule.
+     */
+    public LocalDateTime next(LocalDateTime time) {
+        LocalDateTime next = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = next.plusYears(5);
+        while (next.isBefore(limit)) {
+            if (!months.get(next.getMonthValue())) {
+                next = next.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+            } else if (!matchesDay(next.toLocalDate())) {
+                next = next.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!hours.get(next.getHour())) {
+                next = next.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!minutes.get(next.getMinute())) {
+                next = next.plusMinutes(1);
+            } else {
+                return next;
+            }
+        }
+        throw new IllegalArgumentException("Schedule " + expression + " never matches.");
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private boolean matchesDay(LocalDate date) {
+        boolean day = days.get(date.getDayOfMonth());
+        boolean weekDay = weekDays.get(date.getDayOfWeek().getValue() % 7);
+        if (anyDay) return weekDay;
+        if (anyWeekDay) return day;
+        return day || weekDay;
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            if (part.contains("/")) {
+                step = Integer.parseInt(part.substring(part.indexOf('/') + 1));
+                if (step < 1) throw new IllegalArgumentException("step must be positive in " + part);
+                part = part.substring(0, part.indexOf('/'));
+            }
+            int from;
+            int to;
+            if ("*".equals(part)) {
+                from = min;
+                to = max;
+            } else if (part.contains("-")) {
+                from = Integer.parseInt(part.substring(0, part.indexOf('-')));
+                to = Integer.parseInt(part.substring(part.indexOf('-') + 1));
+            } else {
+                from = Integer.parseInt(part);
+                to = step > 1 ? max : from;
+            }
+            if (from < min || to > max || from > to)
+                throw new IllegalArgumentException(part + " is out of range " + min + "-" + max);
+            for (int value = from; value <= to; value += step) values.set(value);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,188 @@
+package lt.iz;
+
+import lt.iz.tracker.Metrics;
+import lt.iz.tracker.TimeTracker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Long running JVM which backs up stacks on their cron schedules and runs actions requested by {@link ControlServer},
+ * so runs skip JVM startup and reuse warm caches: manifests and indexes of archives and chunks of unchanged files.
+ * Stack runs one action at a time, requests for busy stack are rejected and its schedule misses are skipped.
+ * At most {@code parallelStacks} stacks run at once.
+ */
+public class Daemon {
+
+    private final Map<String, State> states = new LinkedHashMap<>();
+    private final StackAction stackAction;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public Daemon(Iterable<Params> stacks, int parallelStacks, StackAction stackAction) {
+        if (parallelStacks < 1)
+            throw new IllegalArgumentException("Parallel stacks count must be positive: " + parallelStacks);
+        for (Params stack : stacks) {
+            states.put(stack.stack, new State(stack, stack.schedule == null ? null : CronSchedule.parse(stack.schedule)));
+        }
+        this.stackAction = stackAction;
+        this.executor = Executors.newFixedThreadPool(parallelStacks);
+    }
+
+    public void start() {
+        for (State state : states.values()) {
+            if (state.schedule == null) continue;
+            scheduleNext(state, LocalDateTime.now());
+            withStack(state, () -> log("Backup scheduled by " + state.schedule + ", next at " + state.next));
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code name} is a stack of the daemon, {@code null} is the stack given by arguments.
+     */
+    public boolean hasStack(String name) {
+        return states.containsKey(name);
+    }
+
+    /**
+     * Starts {@code action} of stack in background, returns {@code false} if stack is still running other action.
+     */
+    public boolean submit(String name, Action action) {
+        State state = states.get(name);
+        synchronized (state) {
+            if (state.running != null) return false;
+            state.running = action;
+        }
+        executor.execute(() -> run(state, action));
+        return true;
+    }
+
+    /**
+     * JSON status of every stack: schedule, next scheduled backup, running action and result of the last run.
+     */
+    public String getStatus() {
+        StringBuilder json = new StringBuilder("{\n  \"stacks\": [");
+        int i = 0;
+        for (State state : states.values()) {
+            synchronized (state) {
+                json.append(i++ == 0 ? "\n" : ",\n").append("    {")
+                    .append("\"stack\": ").append(quote(state.params.stack))
+                    .append(", \"schedule\": ").append(quote(state.schedule == null ? null : state.schedule.toString()))
+                    .append(", \"next\": ").append(quote(state.next == null ? null : state.next.toString()))
+                    .append(", \"running\": ").append(quote(state.running == null ? null : state.running.name().toLowerCase()))
+                    .append(", \"lastAction\": ").append(quote(state.lastAction == null ? null : state.lastAction.name().toLowerCase()))
+                    .append(", \"lastSuccess\": ").append(state.lastAction == null ? null : state.lastSuccess)
+                    .append(", \"lastStarted\": ").append(quote(state.lastStarted == null ? null : state.lastStarted.toString()))
+                    .append(", \"lastDurationSeconds\": ")
+                    .append(state.lastAction == null ? null : TimeTracker.format(state.lastNanos))
+                    .append(", \"lastError\": ").append(quote(state.lastError))
+                    .append("}");
+            }
+        }
+        return json.append(states.isEmpty() ? "]\n" : "\n  ]\n").append("}\n").toString();
+    }
+
+    public void stop() {
+        stopped.countDown();
+    }
+
+    /**
+     * Waits until {@link #stop()} is called, then waits for running actions to finish.
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+        timer.shutdownNow();
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(State state, Action action) {
+        Logger.setStack(state.params.stack);
+        Instant started = Instant.now();
+        TimeTracker timeTracker = TimeTracker.start();
+        boolean success = false;
+        String error = null;
+        try {
+            stackAction.run(state.params, action);
+            success = true;
+            log("*** " + action + " SUCCESS ***", timeTracker);
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.toString() : e.getMessage();
+            log("*** " + action + " FAILURE: " + error);
+        } finally {
+            synchronized (state) {
+                state.running = null;
+                state.lastAction = action;
+                state.lastSuccess = success;
+                state.lastStarted = started;
+                state.lastNanos = timeTracker.finish();
+                state.lastError = error;
+            }
+            Logger.setStack(null);
+        }
+    }
+
+    /**
+     * Schedules backup at the first minute matching stack schedule after {@code after}. Next minute is resolved
+     * after the scheduled one, not after the time timer fired, so timer firing early does not run it twice.
+     */
+    private void scheduleNext(State state, LocalDateTime after) {
+        LocalDateTime next = state.schedule.next(after);
+        synchronized (state) {
+            state.next = next;
+        }
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), next).toMillis());
+        timer.schedule(() -> {
+            if (!submit(state.params.stack, Action.BACKUP))
+                withStack(state, () -> log("Scheduled backup skipped, " + state.running + " is still running."));
+            LocalDateTime now = LocalDateTime.now();
+            scheduleNext(state, now.isAfter(next) ? now : next);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void withStack(State state, Runnable runnable) {
+        Logger.setStack(state.params.stack);
+        try {
+            runnable.run();
+        } finally {
+            Logger.setStack(null);
+        }
+    }
+
+    private static String quote(String value) {
+        return value == null ? "null" : Metrics.quote(value);
+    }
+
+    public interface StackAction {
+        void run(Params params, Action action) throws Exception;
+    }
+
+    private static class State {
+
+        private final Params params;
+        private final CronSchedule schedule;
+        private LocalDateTime next;
+        private Action running;
+        private Action lastAction;
+        private boolean lastSuccess;
+        private Instant lastStarted;
+        private long lastNanos;
+        private String lastError;
+
+        private State(Params params, CronSchedule schedule) {
+            this.params = params;
+            this.schedule = schedule;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package lt.iz;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 public class Database {
 
@@ -8,6 +10,13 @@ public class Database {
 
     public File directory;
 
+    public int serviceTimeoutInSeconds = 10;
+
+    /**
+     * Globs of files and directories relative to database directory which are not backed up.
+     */
+    public List<String> skip = Collections.emptyList();
+
     public Database(String serviceName, File directory) {
         this.serviceName = serviceName;
         this.directory = directory;
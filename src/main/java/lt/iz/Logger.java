@@ -11,12 +11,27 @@ public class Logger {
 
     private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    /**
+     * Stack of the current thread, inherited by threads it starts, so messages of stacks run concurrently can be told apart.
+     */
+    private static final InheritableThreadLocal<String> stack = new InheritableThreadLocal<>();
+
     public static void log(String message) {
-        System.out.println(now().format(formatter) + " " + message);
+        String current = stack.get();
+        System.out.println(now().format(formatter) + " " + (current == null ? "" : "[" + current + "] ") + message);
     }
 
     public static void log(String message, TimeTracker timeTracker) {
-        log(format("%s (%s sec.)", message, timeTracker.finish()));
+        log(format("%s (%s sec.)", message, TimeTracker.format(timeTracker.finish())));
+    }
+
+    public static String getStack() {
+        return stack.get();
+    }
+
+    public static void setStack(String name) {
+        if (name == null) stack.remove();
+        else stack.set(name);
     }
 
 }
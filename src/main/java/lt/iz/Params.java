@@ -1,21 +1,129 @@
 package lt.iz;
 
+import lt.iz.file.Archiver;
+import lt.iz.file.BackupMode;
+import lt.iz.file.CodecType;
+import lt.iz.file.CpuLimiter;
+import lt.iz.file.DatabaseType;
+import lt.iz.file.FileCopier;
+import lt.iz.file.IoLimiter;
+import lt.iz.file.Replicator;
+import lt.iz.file.RestoreMode;
+import lt.iz.file.S3ReplicaTarget;
+import lt.iz.file.VolumeLimiter;
+import lt.iz.service.ServiceManagerType;
+
 import java.io.File;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class Params {
 
+    public static final String REPORT_FILE_NAME = "nano-db-report.json";
+
     public Action action;
 
+    /**
+     * Name of configured stack, {@code null} if databases are given by command line arguments.
+     */
+    public String stack;
+
     public File backupDir;
 
     public Database eventStore;
 
     public Database mongo;
 
+    public BackupMode backupMode = BackupMode.COPY;
+
+    public RestoreMode restoreMode = RestoreMode.COPY;
+
+    public int threads = Archiver.DEFAULT_THREADS;
+
+    public CodecType codec = CodecType.DEFAULT;
+
+    public int copyThreads = FileCopier.DEFAULT_THREADS;
+
+    public int repositoryKeep = 0;
+
+    public int keepLast = 0;
+
+    public int keepHourly = 0;
+
+    public int keepDaily = 0;
+
+    public int keepWeekly = 0;
+
+    /**
+     * Replica target: {@code s3://bucket/prefix} or directory, {@code null} if backups are not replicated.
+     */
+    public String replica;
+
+    public String replicaEndpoint;
+
+    public String replicaRegion = S3ReplicaTarget.DEFAULT_REGION;
+
+    public int replicaThreads = Replicator.DEFAULT_THREADS;
+
+    public int replicaPartSize = Replicator.DEFAULT_PART_SIZE_MB;
+
+    public String schedule;
+
+    public int httpPort = 0;
+
+    /**
+     * File with token every request of control endpoint must send, required if {@link #httpPort} is set.
+     */
+    public File httpTokenFile;
+
+    /**
+     * Whether control endpoint serves {@code /restore}, which overwrites live database directories.
+     */
+    public boolean httpRestore = false;
+
+    public int cpuThreads = CpuLimiter.DEFAULT_PERMITS;
+
+    public int parallelStacks = 0;
+
+    public int ioPerVolume = VolumeLimiter.DEFAULT_PERMITS_PER_VOLUME;
+
+    public int readLimit = IoLimiter.UNLIMITED;
+
+    public int writeLimit = IoLimiter.UNLIMITED;
+
+    public File limitFile;
+
+    public boolean sparse = true;
+
+    public ServiceManagerType serviceManager = ServiceManagerType.NSSM;
+
+    public String serviceStartCommand;
+
+    public String serviceStopCommand;
+
+    public String serviceStatusCommand;
+
+    public String archive;
+
+    public Set<DatabaseType> databases = EnumSet.allOf(DatabaseType.class);
+
+    public String include;
+
+    /**
+     * Verify backup before restore stops services, {@code null} verifies it only before restores writing
+     * directly to database directories.
+     */
+    public Boolean verify;
+
+    public File report;
+
+    public File prometheus;
+
     public Params(Action action, File backupDir, Database eventStore, Database mongo) {
         this.action = action;
         this.backupDir = backupDir;
         this.eventStore = eventStore;
         this.mongo = mongo;
+        this.report = new File(backupDir, REPORT_FILE_NAME);
     }
 }
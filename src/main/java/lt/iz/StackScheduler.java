@@ -0,0 +1,73 @@
+package lt.iz;
+
+import lt.iz.file.CpuLimiter;
+import lt.iz.file.VolumeLimiter;
+import lt.iz.tracker.TimeTracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Runs action of configured stacks concurrently in one JVM, at most {@code parallelStacks} stacks at once. Failed
+ * stack does not stop other stacks, failures are reported when all stacks finished. Compression of all stacks
+ * shares {@link CpuLimiter} permits, their database and archive stages share {@link VolumeLimiter} permits.
+ */
+public class StackScheduler {
+
+    private final int parallelStacks;
+
+    public StackScheduler(int parallelStacks) {
+        if (parallelStacks < 1)
+            throw new IllegalArgumentException("Parallel stacks count must be positive: " + parallelStacks);
+        this.parallelStacks = parallelStacks;
+    }
+
+    public void run(List<Params> stacks, StackRun stackRun) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelStacks, stacks.size()));
+        try {
+            Map<String, Future<?>> futures = new LinkedHashMap<>();
+            for (Params stack : stacks) {
+                futures.put(stack.stack, executor.submit(() -> {
+                    Logger.setStack(stack.stack);
+                    TimeTracker timeTracker = TimeTracker.start();
+                    try {
+                        stackRun.run(stack);
+                        log("*** STACK SUCCESS ***", timeTracker);
+                    } catch (Exception e) {
+                        log("*** STACK FAILURE: " + e.getMessage());
+                        throw e;
+                    } finally {
+                        Logger.setStack(null);
+                    }
+                    return null;
+                }));
+            }
+
+            List<String> failed = new ArrayList<>();
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failed.add(future.getKey());
+                }
+            }
+            if (!failed.isEmpty())
+                throw new IOException(failed.size() + " of " + stacks.size() + " stacks failed: " + failed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public interface StackRun {
+        void run(Params params) throws IOException, InterruptedException;
+    }
+}
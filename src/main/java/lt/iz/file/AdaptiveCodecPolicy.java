@@ -0,0 +1,66 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses codec by file name first: WiredTiger files and already compressed formats are stored, EventStore chunks
+ * are compressed with fast codec. Other files are sampled at start, middle and end, files with byte entropy close
+ * to 8 bits are stored as they would not shrink, the rest are compressed with fast codec.
+ */
+public class AdaptiveCodecPolicy implements CodecPolicy {
+
+    private static final int SAMPLE_SIZE = 1 << 14;
+    private static final int MIN_SAMPLED_SIZE = 1 << 12;
+    private static final double STORE_ENTROPY = 7.5;
+
+    private static final Map<String, Codec> EXTENSION_CODECS = new HashMap<>();
+
+    static {
+        for (String extension : new String[]{"wt", "zip", "gz", "bz2", "xz", "zst", "lz4", "snappy", "7z",
+            "jpg", "jpeg", "png", "mp4"}) {
+            EXTENSION_CODECS.put(extension, Codec.STORE);
+        }
+    }
+
+    @Override
+    public Codec select(File file) throws IOException {
+        if (EventStoreLayout.isChunk(file)) return Codec.FAST;
+
+        String name = file.getName();
+        Codec codec = EXTENSION_CODECS.get(name.substring(name.lastIndexOf('.') + 1).toLowerCase());
+        if (codec != null) return codec;
+
+        if (file.length() < MIN_SAMPLED_SIZE) return Codec.FAST;
+        return sampleEntropy(file) >= STORE_ENTROPY ? Codec.STORE : Codec.FAST;
+    }
+
+    /**
+     * Returns Shannon entropy in bits per byte of samples read at start, middle and end of file.
+     */
+    private static double sampleEntropy(File file) throws IOException {
+        long[] counts = new long[256];
+        long total = 0;
+        byte[] sample = new byte[SAMPLE_SIZE];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            for (long position : new long[]{0, length / 2, Math.max(0, length - SAMPLE_SIZE)}) {
+                in.seek(position);
+                int read = in.read(sample);
+                for (int i = 0; i < read; i++) counts[sample[i] & 0xFF]++;
+                total += Math.max(read, 0);
+            }
+        }
+
+        double entropy = 0;
+        for (long count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / total;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+}
@@ -0,0 +1,90 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Re-reads every archive entry on a worker pool and checks it against {@link Checksums} stored in archive.
+ */
+public class ArchiveVerifier {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int threads;
+
+    public ArchiveVerifier(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Verify threads count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Returns descriptions of corrupt entries, empty list if archive is valid.
+     */
+    public List<String> verify(File archiveFile) throws IOException {
+        List<String> corrupt = Collections.synchronizedList(new ArrayList<>());
+        try (ZipFile file = new ZipFile(archiveFile)) {
+            Checksums checksums = Archiver.readChecksums(file, Archiver.resolveRootName(archiveFile));
+            List<ZipEntry> entries = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(file.entries())) {
+                if (!entry.isDirectory()) entries.add(entry);
+            }
+            entries.sort(Comparator.comparingLong(ZipEntry::getCompressedSize).reversed());
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (ZipEntry entry : entries) {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            verifyEntry(file, entry, checksums);
+                        } catch (IOException e) {
+                            corrupt.add(archiveFile.getName() + ": " + e.getMessage());
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) get(future);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return corrupt;
+    }
+
+    private static void verifyEntry(ZipFile file, ZipEntry entry, Checksums checksums) throws IOException {
+        Hasher hasher = checksums.newHasher(entry);
+        try (InputStream in = file.getInputStream(entry)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                hasher.putBytes(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            throw new IOException("Archive entry " + entry.getName() + " could not be read: " + e.getMessage(), e);
+        }
+        checksums.check(entry, hasher);
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Verify interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -1,33 +1,95 @@
 package lt.iz.file;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 public class Archiver {
 
-    public static void compress(File sourceFile) throws IOException {
-        FileOutputStream fos = new FileOutputStream(sourceFile.toString() + ".zip");
-        ZipOutputStream zipOut = new ZipOutputStream(fos);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public static Result compress(File sourceFile) throws IOException {
+        return compress(sourceFile, DEFAULT_THREADS);
+    }
+
+    public static Result compress(File sourceFile, int threads) throws IOException {
+        return compress(sourceFile, threads, CodecPolicy.of(Codec.DEFAULT));
+    }
 
-        zipFile(sourceFile, sourceFile.getName(), zipOut);
-        zipOut.close();
-        fos.close();
+    public static Result compress(File sourceFile, int threads, CodecPolicy codecPolicy) throws IOException {
+        return compress(sourceFile, threads, codecPolicy, null);
     }
 
-    public static void extract(File sourceFile, File destDir) throws IOException {
+    /**
+     * Compresses file or directory to {@code <sourceFile>.zip}, {@code finished} listener, if given, is told
+     * archive length which is final as entries are written.
+     */
+    public static Result compress(File sourceFile, int threads, CodecPolicy codecPolicy, LongConsumer finished)
+        throws IOException {
+        try (ParallelCompressor compressor = new ParallelCompressor(new File(sourceFile.toString() + ".zip"), threads,
+            codecPolicy, finished)) {
+            zipFile(sourceFile, sourceFile.getName(), compressor, null);
+            addHoles(compressor, sourceFile.getName());
+            addChecksums(compressor, sourceFile.getName());
+            return compressor.getResult();
+        }
+    }
+
+    public static Result compress(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                  int threads) throws IOException {
+        return compress(archiveFile, rootName, sources, filter, threads, CodecPolicy.of(Codec.DEFAULT));
+    }
+
+    /**
+     * Compresses source directories directly into archive file. Each source directory is placed
+     * under {@code rootName} directory entry by its key, files rejected by filter are skipped.
+     */
+    public static Result compress(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                  int threads, CodecPolicy codecPolicy) throws IOException {
+        return compress(archiveFile, rootName, sources, filter, threads, codecPolicy, null);
+    }
+
+    public static Result compress(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                  int threads, CodecPolicy codecPolicy, LongConsumer finished) throws IOException {
+        try (ParallelCompressor compressor = new ParallelCompressor(archiveFile, threads, codecPolicy, finished)) {
+            compressor.addDirectory(rootName, System.currentTimeMillis());
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                zipFile(source.getValue(), rootName + "/" + source.getKey(), compressor, filter);
+            }
+            addHoles(compressor, rootName);
+            addChecksums(compressor, rootName);
+            return compressor.getResult();
+        }
+    }
+
+    public static Result extract(File sourceFile, File destDir) throws IOException {
+        Result result = new Result();
         try (ZipFile file = new ZipFile(sourceFile)) {
+            Checksums checksums = readChecksums(file, resolveRootName(sourceFile));
+            Holes holes = readHoles(file, resolveRootName(sourceFile));
             FileSystem fileSystem = FileSystems.getDefault();
             Enumeration<? extends ZipEntry> entries = file.entries();
 
@@ -42,51 +104,345 @@ public class Archiver {
                     try (InputStream is = file.getInputStream(entry);
                          BufferedInputStream bis = new BufferedInputStream(is)) {
                         String uncompressedFileName = destDir + File.separator + entry.getName();
-                        Path uncompressedFilePath = fileSystem.getPath(uncompressedFileName);
-                        Files.createFile(uncompressedFilePath);
-                        FileOutputStream fileOutput = new FileOutputStream(uncompressedFileName);
+                        OutputStream fileOutput = SparseFiles.newOutputStream(new File(uncompressedFileName),
+                            holes.get(entry.getName()));
+                        Hasher hasher = checksums.newHasher(entry);
 
                         byte[] bytes = new byte[1024];
+                        long size = 0;
                         int length;
                         while ((length = bis.read(bytes)) >= 0) {
                             fileOutput.write(bytes, 0, length);
+                            hasher.putBytes(bytes, 0, length);
+                            size += length;
                         }
 
                         fileOutput.close();
+                        checksums.check(entry, hasher);
+                        result.add(size);
                         //System.out.println("Written :" + entry.getName());
                     }
                 }
             }
         }
+        return result;
+    }
+
+    /**
+     * Compresses source directories like {@link #compress(File, String, Map, FileFilter, int)} but only files
+     * changed since {@code previous} manifest, unchanged files are referenced from archives of previous backups.
+     * Manifest of all files is stored in the archive and returned.
+     */
+    public static Manifest compressIncremental(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                               Manifest previous, String previousArchive, int threads) throws IOException {
+        return compressIncremental(archiveFile, rootName, sources, filter, previous, previousArchive, threads,
+            CodecPolicy.of(Codec.DEFAULT));
+    }
+
+    public static Manifest compressIncremental(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                               Manifest previous, String previousArchive, int threads,
+                                               CodecPolicy codecPolicy) throws IOException {
+        return compressIncremental(archiveFile, rootName, sources, filter, previous, previousArchive, threads,
+            codecPolicy, null);
+    }
+
+    public static Manifest compressIncremental(File archiveFile, String rootName, Map<String, File> sources, FileFilter filter,
+                                               Manifest previous, String previousArchive, int threads,
+                                               CodecPolicy codecPolicy, LongConsumer finished) throws IOException {
+        Manifest manifest = new Manifest(previousArchive);
+        try (ParallelCompressor compressor = new ParallelCompressor(archiveFile, threads, codecPolicy, finished)) {
+            compressor.addDirectory(rootName, System.currentTimeMillis());
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                zipChangedFile(source.getValue(), source.getKey(), rootName, archiveFile.getName(), compressor, filter,
+                    previous, manifest);
+            }
+
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            compressor.addBytes(rootName + "/" + Manifest.ENTRY_NAME, System.currentTimeMillis(), manifestBytes.toByteArray());
+            addHoles(compressor, rootName);
+            addChecksums(compressor, rootName);
+        }
+        IndexCache.put(IndexCache.MANIFEST, archiveFile, manifest);
+        return manifest;
     }
 
-    private static void zipFile(File fileToZip, String fileName, ZipOutputStream zipOut) throws IOException {
+    /**
+     * Reads manifest stored in archive, returns {@code null} if archive has no manifest. Manifest of the same
+     * archive is read once per JVM while archive is unchanged.
+     */
+    public static Manifest readManifest(File archiveFile) throws IOException {
+        return IndexCache.get(IndexCache.MANIFEST, archiveFile, () -> loadManifest(archiveFile));
+    }
+
+    private static Manifest loadManifest(File archiveFile) throws IOException {
+        try (ZipFile file = new ZipFile(archiveFile)) {
+            ZipEntry entry = file.getEntry(resolveRootName(archiveFile) + "/" + Manifest.ENTRY_NAME);
+            if (entry == null) return null;
+            try (InputStream is = file.getInputStream(entry)) {
+                return Manifest.read(is);
+            }
+        }
+    }
+
+    /**
+     * Reads archive index: central directory of archive holds path, size, CRC and offset of every entry,
+     * so it is read without decompressing any file. Entry hash is CRC32 of file in hex, codec is ZIP
+     * compression method as level is not kept in central directory. Index of the same archive is read once per JVM
+     * while archive is unchanged.
+     */
+    public static Manifest readIndex(File archiveFile) throws IOException {
+        return IndexCache.get(IndexCache.INDEX, archiveFile, () -> loadIndex(archiveFile));
+    }
+
+    private static Manifest loadIndex(File archiveFile) throws IOException {
+        String rootName = resolveRootName(archiveFile);
+        Manifest index = new Manifest(null);
+        try (ZipFile file = new ZipFile(archiveFile)) {
+            Enumeration<? extends ZipEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName().endsWith("/")
+                    ? entry.getName().substring(0, entry.getName().length() - 1) : entry.getName();
+                if (!name.startsWith(rootName + "/") || name.equals(rootName + "/" + Manifest.ENTRY_NAME)
+                    || name.equals(rootName + "/" + Checksums.ENTRY_NAME) || name.equals(rootName + "/" + Holes.ENTRY_NAME))
+                    continue;
+                index.add(new Manifest.Entry(entry.isDirectory(), name.substring(rootName.length() + 1),
+                    entry.isDirectory() ? 0 : entry.getSize(), entry.getTime(),
+                    entry.isDirectory() ? null : String.format("%08x", entry.getCrc()), archiveFile.getName(),
+                    entry.isDirectory() ? null : entry.getMethod() == ZipEntry.STORED ? "store" : "deflate"));
+            }
+        }
+        return index;
+    }
+
+    public static Result extract(Manifest manifest, File archiveDir, Map<String, File> targets) throws IOException {
+        return extract(manifest, archiveDir, targets, null);
+    }
+
+    /**
+     * Extracts all manifest directories and files to target directories, file content is read from
+     * archives in {@code archiveDir} referenced by manifest entries. If {@code include} is given, only
+     * files with accepted {@code name/path} are extracted, entries are read from archives directly.
+     */
+    public static Result extract(Manifest manifest, File archiveDir, Map<String, File> targets, Predicate<String> include)
+        throws IOException {
+        Result result = new Result();
+        Map<String, List<Manifest.Entry>> entriesByArchive = new LinkedHashMap<>();
+        for (Manifest.Entry entry : manifest.getEntries()) {
+            File target = resolveTarget(entry.path, targets);
+            if (target == null) continue;
+            if (include != null && !include.test(entry.path)) continue;
+            if (entry.directory) {
+                Files.createDirectories(target.toPath());
+            } else {
+                entriesByArchive.computeIfAbsent(entry.archive, a -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        for (Map.Entry<String, List<Manifest.Entry>> archiveEntries : entriesByArchive.entrySet()) {
+            File archiveFile = new File(archiveDir, archiveEntries.getKey());
+            if (!archiveFile.exists())
+                throw new IOException("Backup archive " + archiveFile + " referenced by manifest not found.");
+
+            try (ZipFile file = new ZipFile(archiveFile)) {
+                String rootName = resolveRootName(archiveFile);
+                Checksums checksums = readChecksums(file, rootName);
+                Holes holes = readHoles(file, rootName);
+                for (Manifest.Entry entry : archiveEntries.getValue()) {
+                    ZipEntry zipEntry = file.getEntry(rootName + "/" + entry.path);
+                    if (zipEntry == null)
+                        throw new IOException("Backup archive " + archiveFile + " has no entry " + entry.path);
+                    result.add(extractEntry(file, zipEntry, resolveTarget(entry.path, targets), checksums, holes));
+                }
+            }
+        }
+        return result;
+    }
+
+    public static Result extract(File sourceFile, Map<String, File> targets) throws IOException {
+        return extract(sourceFile, targets, null);
+    }
+
+    /**
+     * Extracts archive entries directly to target directories. Entry {@code root/name/path} is written to
+     * {@code path} under target directory mapped by {@code name}, entries of unmapped directories are skipped.
+     * If {@code include} is given, only entries with accepted {@code name/path} are extracted.
+     */
+    public static Result extract(File sourceFile, Map<String, File> targets, Predicate<String> include) throws IOException {
+        Result result = new Result();
+        try (ZipFile file = new ZipFile(sourceFile)) {
+            Checksums checksums = readChecksums(file, resolveRootName(sourceFile));
+            Holes holes = readHoles(file, resolveRootName(sourceFile));
+            Enumeration<? extends ZipEntry> entries = file.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().contains("/")) continue;
+                String path = entry.getName().substring(entry.getName().indexOf("/") + 1);
+                File target = resolveTarget(path, targets);
+                if (target == null) continue;
+                if (include != null && !include.test(path.endsWith("/") ? path.substring(0, path.length() - 1) : path))
+                    continue;
+
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target.toPath());
+                } else {
+                    result.add(extractEntry(file, entry, target, checksums, holes));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Extracts entry checking its content while it is written, throws if checksum does not match.
+     * Returns bytes written.
+     */
+    private static long extractEntry(ZipFile file, ZipEntry entry, File target, Checksums checksums, Holes holes)
+        throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        Hasher hasher = checksums.newHasher(entry);
+        long size = 0;
+        try (InputStream is = file.getInputStream(entry);
+             OutputStream fileOutput = SparseFiles.newOutputStream(target, holes.get(entry.getName()))) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = is.read(bytes)) >= 0) {
+                fileOutput.write(bytes, 0, length);
+                hasher.putBytes(bytes, 0, length);
+                size += length;
+            }
+        }
+        checksums.check(entry, hasher);
+        return size;
+    }
+
+    /**
+     * Reads checksums stored in archive, returns empty checksums if archive has none.
+     */
+    static Checksums readChecksums(ZipFile file, String rootName) throws IOException {
+        ZipEntry entry = file.getEntry(rootName + "/" + Checksums.ENTRY_NAME);
+        if (entry == null) return new Checksums();
+        try (InputStream is = file.getInputStream(entry)) {
+            return Checksums.read(is);
+        }
+    }
+
+    /**
+     * Reads holes stored in archive, returns empty holes if archive has none.
+     */
+    static Holes readHoles(ZipFile file, String rootName) throws IOException {
+        ZipEntry entry = file.getEntry(rootName + "/" + Holes.ENTRY_NAME);
+        if (entry == null) return new Holes();
+        try (InputStream is = file.getInputStream(entry)) {
+            return Holes.read(is);
+        }
+    }
+
+    static void addHoles(ParallelCompressor compressor, String rootName) throws IOException {
+        ByteArrayOutputStream holeBytes = new ByteArrayOutputStream();
+        compressor.getHoles().write(holeBytes);
+        compressor.addBytes(rootName + "/" + Holes.ENTRY_NAME, System.currentTimeMillis(), holeBytes.toByteArray());
+    }
+
+    static void addChecksums(ParallelCompressor compressor, String rootName) throws IOException {
+        ByteArrayOutputStream checksumBytes = new ByteArrayOutputStream();
+        compressor.getChecksums().write(checksumBytes);
+        compressor.addBytes(rootName + "/" + Checksums.ENTRY_NAME, System.currentTimeMillis(), checksumBytes.toByteArray());
+    }
+
+    /**
+     * Resolves target file of {@code name/path} of archive entry or repository snapshot, {@code null} if there is
+     * no target directory mapped by {@code name}. Paths leaving target directory are rejected, as archives and
+     * snapshots may be fetched from replica target.
+     */
+    static File resolveTarget(String path, Map<String, File> targets) throws IOException {
+        String[] parts = path.split("/", 2);
+        if (!targets.containsKey(parts[0])) return null;
+        if (Arrays.asList(path.split("[/\\\\]")).contains(".."))
+            throw new IOException("Illegal backup entry name: " + path);
+        String relativePath = parts.length > 1 ? parts[1] : "";
+        return relativePath.isEmpty() ? targets.get(parts[0]) : new File(targets.get(parts[0]), relativePath);
+    }
+
+    static String resolveRootName(File archiveFile) {
+        String name = archiveFile.getName();
+        return name.endsWith(".zip") ? name.substring(0, name.length() - ".zip".length()) : name;
+    }
+
+    private static void zipChangedFile(File fileToZip, String path, String rootName, String archiveName,
+                                       ParallelCompressor compressor, FileFilter filter, Manifest previous,
+                                       Manifest manifest) throws IOException {
         if (fileToZip.isHidden()) {
             return;
         }
+        if (filter != null && !filter.accept(fileToZip)) {
+            return;
+        }
         if (fileToZip.isDirectory()) {
-            if (fileName.endsWith("/")) {
-                zipOut.putNextEntry(new ZipEntry(fileName));
-                zipOut.closeEntry();
-            } else {
-                zipOut.putNextEntry(new ZipEntry(fileName + "/"));
-                zipOut.closeEntry();
+            manifest.add(new Manifest.Entry(true, path, 0, fileToZip.lastModified(), null, null));
+            compressor.addDirectory(rootName + "/" + path, fileToZip.lastModified());
+            File[] children = fileToZip.listFiles();
+            for (File childFile : children) {
+                zipChangedFile(childFile, path + "/" + childFile.getName(), rootName, archiveName, compressor, filter,
+                    previous, manifest);
             }
+            return;
+        }
+
+        long size = fileToZip.length();
+        long modified = fileToZip.lastModified();
+        Manifest.Entry previousEntry = previous == null ? null : previous.get(path);
+        if (previousEntry != null && previousEntry.isUnchanged(size, modified)) {
+            manifest.add(previousEntry);
+            return;
+        }
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        Codec codec = compressor.addFile(fileToZip, rootName + "/" + path, hasher);
+        manifest.add(new Manifest.Entry(false, path, size, modified, hasher.hash().toString(), archiveName,
+            codec.getName()));
+    }
+
+    static void zipFile(File fileToZip, String fileName, ParallelCompressor compressor, FileFilter filter) throws IOException {
+        if (fileToZip.isHidden()) {
+            return;
+        }
+        if (filter != null && !filter.accept(fileToZip)) {
+            return;
+        }
+        if (fileToZip.isDirectory()) {
+            compressor.addDirectory(fileName, fileToZip.lastModified());
             File[] children = fileToZip.listFiles();
             for (File childFile : children) {
-                zipFile(childFile, fileName + "/" + childFile.getName(), zipOut);
+                zipFile(childFile, fileName + "/" + childFile.getName(), compressor, filter);
             }
             return;
         }
-        FileInputStream fis = new FileInputStream(fileToZip);
-        ZipEntry zipEntry = new ZipEntry(fileName);
-        zipOut.putNextEntry(zipEntry);
-        byte[] bytes = new byte[1024];
-        int length;
-        while ((length = fis.read(bytes)) >= 0) {
-            zipOut.write(bytes, 0, length);
+        compressor.addFile(fileToZip, fileName);
+    }
+
+    /**
+     * Files and bytes of file content compressed or extracted, side entries like manifest are not counted.
+     */
+    public static class Result {
+
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        void add(long size) {
+            files.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
         }
-        fis.close();
     }
 
 }
@@ -4,8 +4,12 @@ import java.io.IOException;
 
 public interface BackupManager {
 
-    void backup() throws IOException;
+    void backup() throws IOException, InterruptedException;
 
-    void restoreLatest() throws IOException;
+    void restoreLatest() throws IOException, InterruptedException;
+
+    void list() throws IOException;
+
+    void verify() throws IOException;
 
 }
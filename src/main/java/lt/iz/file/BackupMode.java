@@ -0,0 +1,40 @@
+package lt.iz.file;
+
+public enum BackupMode {
+
+    /**
+     * Copies database directories to working directory, compresses it and deletes working directory.
+     */
+    COPY,
+
+    /**
+     * Writes archive directly from database directories in a single pass, no working directory is created.
+     */
+    STREAM,
+
+    /**
+     * Writes archive from database directories like {@link #STREAM}, but only with files changed since latest
+     * backup manifest. Unchanged files are referenced from previous archives, so they must be kept for restore.
+     */
+    INCREMENTAL,
+
+    /**
+     * Stores database directories to content addressed {@link ChunkRepository} under backup directory,
+     * chunks shared with previous backups are not stored again.
+     */
+    REPOSITORY,
+
+    /**
+     * Hard links sealed EventStore chunks and copies other files to working directory while services are stopped,
+     * services are started right after that and working directory is compressed and deleted while they run.
+     */
+    SNAPSHOT,
+
+    /**
+     * Writes archive from sealed EventStore chunks while services run, then stops services only to copy the rest
+     * of EventStore database directory and Mongo database directory to working directory. Each service is started
+     * as soon as its directory is copied, copied files are added to archive while services run.
+     */
+    ONLINE
+
+}
@@ -0,0 +1,244 @@
+package lt.iz.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Catalog of backups kept in backup directory: name, kind, creation time, size, databases, checksum status and
+ * parent of incremental backups. Backups are looked up in catalog instead of listing backup directory, catalog
+ * is built from backup directory once if it is missing. Entries of deleted backup files are dropped on lookup.
+ */
+public class Catalog {
+
+    public static final String FILE_NAME = "nano-db-catalog.txt";
+
+    public static final String ARCHIVE = "archive";
+    public static final String SNAPSHOT = "snapshot";
+
+    public static final String UNVERIFIED = "unverified";
+    public static final String VERIFIED = "verified";
+    public static final String CORRUPT = "corrupt";
+
+    /**
+     * Order of backups from oldest to latest: by creation time, then by name.
+     */
+    public static final Comparator<Entry> ORDER = Comparator.comparing((Entry e) -> e.created).thenComparing(e -> e.name);
+
+    private static final String HEADER = "#nano-db-catalog";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private final File backupDir;
+    private final File file;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private Catalog(File backupDir) {
+        this.backupDir = backupDir;
+        this.file = new File(backupDir, FILE_NAME);
+    }
+
+    /**
+     * Reads catalog of backup directory, builds it from archives and repository snapshots if it does not exist.
+     */
+    public static Catalog open(File backupDir) throws IOException {
+        Catalog catalog = new Catalog(backupDir);
+        if (catalog.file.exists()) {
+            catalog.read();
+        } else {
+            catalog.build();
+            catalog.write();
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns backups from oldest to latest.
+     */
+    public synchronized List<Entry> getEntries() throws IOException {
+        dropMissing();
+        List<Entry> ordered = new ArrayList<>(entries.values());
+        ordered.sort(ORDER);
+        return ordered;
+    }
+
+    /**
+     * Returns backup of given name, {@code null} if catalog has no such backup.
+     */
+    public synchronized Entry get(String name) throws IOException {
+        dropMissing();
+        return entries.get(name);
+    }
+
+    /**
+     * Returns latest backup of given kind, latest backup of any kind if {@code kind} is {@code null}.
+     */
+    public synchronized Entry getLatest(String kind) throws IOException {
+        dropMissing();
+        Entry latest = null;
+        for (Entry entry : entries.values()) {
+            if ((kind == null || kind.equals(entry.kind)) && (latest == null || ORDER.compare(entry, latest) > 0))
+                latest = entry;
+        }
+        return latest;
+    }
+
+    public synchronized void add(Entry entry) throws IOException {
+        entries.put(entry.name, entry);
+        write();
+    }
+
+    /**
+     * Adds archive or repository snapshot already in backup directory, e.g. fetched from replica target.
+     */
+    public synchronized Entry addFile(String kind, String name) throws IOException {
+        Entry entry = ARCHIVE.equals(kind) ? resolveArchiveEntry(new File(backupDir, name + ".zip"))
+            : resolveSnapshotEntry(new ChunkRepository(backupDir, 1), name);
+        add(entry);
+        return entry;
+    }
+
+    public synchronized void remove(String name) throws IOException {
+        if (entries.remove(name) != null) write();
+    }
+
+    public synchronized void setStatus(String name, String status) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null || status.equals(entry.status)) return;
+        entries.put(name, new Entry(entry.name, entry.kind, entry.created, entry.size, entry.databases, status,
+            entry.parent));
+        write();
+    }
+
+    /**
+     * Returns backup file of archive or repository snapshot.
+     */
+    public File resolveFile(Entry entry) {
+        if (ARCHIVE.equals(entry.kind)) return new File(backupDir, entry.name + ".zip");
+        return new ChunkRepository(backupDir, 1).resolveSnapshot(entry.name);
+    }
+
+    /**
+     * Resolves creation time from backup name {@code nano-db-yyyyMMddHHmmss}, from {@code modified} time otherwise.
+     */
+    static LocalDateTime resolveCreated(String name, long modified) {
+        if (name.startsWith(WinBackupManager.BACKUP_DIR_NAME_PREFIX)) {
+            try {
+                return LocalDateTime.parse(name.substring(WinBackupManager.BACKUP_DIR_NAME_PREFIX.length()),
+                    WinBackupManager.DATE_FORMATTER);
+            } catch (DateTimeParseException e) {
+                // not a name given by backup, modification time is used
+            }
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneId.systemDefault());
+    }
+
+    private void dropMissing() throws IOException {
+        if (entries.values().removeIf(entry -> !resolveFile(entry).exists())) write();
+    }
+
+    private void build() throws IOException {
+        File[] archives = backupDir.listFiles(f -> f.isFile() && f.getName().endsWith(".zip"));
+        if (archives != null) {
+            for (File archive : archives) {
+                Entry entry = resolveArchiveEntry(archive);
+                entries.put(entry.name, entry);
+            }
+        }
+        ChunkRepository repository = new ChunkRepository(backupDir, 1);
+        for (String name : repository.listSnapshots()) {
+            entries.put(name, resolveSnapshotEntry(repository, name));
+        }
+    }
+
+    private static Entry resolveArchiveEntry(File archive) throws IOException {
+        String name = Archiver.resolveRootName(archive);
+        Manifest manifest = Archiver.readManifest(archive);
+        String parent = manifest == null || manifest.getParent() == null
+            ? null : Archiver.resolveRootName(new File(manifest.getParent()));
+        return new Entry(name, ARCHIVE, resolveCreated(name, archive.lastModified()), archive.length(),
+            resolveDatabases(Archiver.readIndex(archive).getEntries()), UNVERIFIED, parent);
+    }
+
+    private static Entry resolveSnapshotEntry(ChunkRepository repository, String name) throws IOException {
+        Collection<Manifest.Entry> index = repository.readIndex(name).getEntries();
+        return new Entry(name, SNAPSHOT, resolveCreated(name, repository.resolveSnapshot(name).lastModified()),
+            index.stream().mapToLong(e -> e.size).sum(), resolveDatabases(index), UNVERIFIED, null);
+    }
+
+    private static String resolveDatabases(Collection<Manifest.Entry> index) {
+        return index.stream().filter(e -> e.directory && !e.path.contains("/")).map(e -> e.path)
+            .collect(Collectors.joining(","));
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) throw new IOException("Illegal backup catalog header: " + line);
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] values = line.split("\t");
+                if (values.length < 7) throw new IOException("Illegal backup catalog line: " + line);
+                entries.put(values[0], new Entry(values[0], values[1], LocalDateTime.parse(values[2], FORMATTER),
+                    Long.parseLong(values[3]), "-".equals(values[4]) ? "" : values[4], values[5],
+                    "-".equals(values[6]) ? null : values[6]));
+            }
+        }
+    }
+
+    /**
+     * Writes catalog to temporary file and renames it over catalog, so catalog is never left half written.
+     */
+    private void write() throws IOException {
+        File temporary = new File(backupDir, FILE_NAME + ".tmp");
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temporary.toPath()), StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "\n");
+            for (Entry entry : entries.values()) {
+                writer.write(String.join("\t", entry.name, entry.kind, FORMATTER.format(entry.created),
+                    String.valueOf(entry.size), entry.databases.isEmpty() ? "-" : entry.databases, entry.status,
+                    entry.parent == null ? "-" : entry.parent) + "\n");
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class Entry {
+
+        public final String name;
+        public final String kind;
+        public final LocalDateTime created;
+        public final long size;
+        public final String databases;
+        public final String status;
+        public final String parent;
+
+        public Entry(String name, String kind, LocalDateTime created, long size, String databases, String status,
+                     String parent) {
+            this.name = name;
+            this.kind = kind;
+            this.created = created;
+            this.size = size;
+            this.databases = databases;
+            this.status = status;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * CRC32C checksums of archive entries computed inline while archive is written, stored in archive as
+ * {@code root/nano-db-checksums.txt} and keyed by full entry name. Entries of archives without checksums
+ * are checked by CRC32 of ZIP entry.
+ */
+public class Checksums {
+
+    public static final String ENTRY_NAME = "nano-db-checksums.txt";
+
+    private static final String HEADER = "#nano-db-checksums";
+
+    private final Map<String, String> checksums = new LinkedHashMap<>();
+
+    public static Hasher newHasher() {
+        return Hashing.crc32c().newHasher();
+    }
+
+    public void put(String name, String checksum) {
+        checksums.put(name, checksum);
+    }
+
+    public void remove(String name) {
+        checksums.remove(name);
+    }
+
+    public String get(String name) {
+        return checksums.get(name);
+    }
+
+    /**
+     * Returns hasher content of {@code entry} must be fed to before {@link #check(ZipEntry, Hasher)}.
+     */
+    public Hasher newHasher(ZipEntry entry) {
+        return checksums.containsKey(entry.getName()) ? newHasher() : Hashing.crc32().newHasher();
+    }
+
+    /**
+     * Throws if content fed to hasher does not match checksum of {@code entry}.
+     */
+    public void check(ZipEntry entry, Hasher hasher) throws IOException {
+        String expected = checksums.get(entry.getName());
+        boolean valid = expected != null
+            ? expected.equals(hasher.hash().toString())
+            : (hasher.hash().padToLong() & 0xFFFFFFFFL) == entry.getCrc();
+        if (!valid) throw new IOException("Archive entry " + entry.getName() + " is corrupt, checksum does not match.");
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(HEADER + "\n");
+        for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+            writer.write(checksum.getValue() + "\t" + checksum.getKey() + "\n");
+        }
+        writer.flush();
+    }
+
+    public static Checksums read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) throw new IOException("Illegal archive checksums header: " + line);
+
+        Checksums checksums = new Checksums();
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] values = line.split("\t", 2);
+            if (values.length < 2) throw new IOException("Illegal archive checksums line: " + line);
+            checksums.put(values[1], values[0]);
+        }
+        return checksums;
+    }
+}
@@ -0,0 +1,474 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Content addressed backup repository. Files are split to content defined chunks, every chunk is compressed
+ * and stored once by its SHA-256 hash under {@code chunks} directory. Backup is a small snapshot file under
+ * {@code snapshots} directory referencing chunks of every file, so unchanged parts of files are shared by backups.
+ */
+public class ChunkRepository {
+
+    public static final String DIR_NAME = "nano-db-repository";
+
+    static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final String SNAPSHOT_HEADER = "#nano-db-snapshot";
+
+    private static final int MIN_CHUNK_SIZE = 1 << 18;
+    private static final int MAX_CHUNK_SIZE = 1 << 22;
+    private static final long CHUNK_MASK = (1L << 20) - 1;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6e616e6fL);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    /**
+     * Chunks of files stored by backups of this JVM keyed by chunks directory and file, so long running daemon
+     * does not read and split files unchanged (by size and modification time) since its previous backup again.
+     */
+    private static final Map<String, StoredFile> STORED_FILES = new ConcurrentHashMap<>();
+
+    private final File chunksDir;
+    private final File snapshotsDir;
+    private final int threads;
+
+    public ChunkRepository(File backupDir, int threads) {
+        File repositoryDir = new File(backupDir, DIR_NAME);
+        this.chunksDir = new File(repositoryDir, "chunks");
+        this.snapshotsDir = new File(repositoryDir, "snapshots");
+        this.threads = threads;
+    }
+
+    /**
+     * Stores source directories as snapshot {@code name}. Sources are keyed by directory name like in archives,
+     * files rejected by filter are skipped. Returns count of new chunks written to repository.
+     */
+    public long backup(String name, Map<String, File> sources, FileFilter filter) throws IOException {
+        return backup(name, sources, filter, null);
+    }
+
+    /**
+     * Stores snapshot like {@link #backup(String, Map, FileFilter)}, {@code stored} is called on worker thread
+     * with every new chunk file as soon as it is stored.
+     */
+    public long backup(String name, Map<String, File> sources, FileFilter filter, Consumer<File> stored) throws IOException {
+        Files.createDirectories(chunksDir.toPath());
+        Files.createDirectories(snapshotsDir.toPath());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ChunkWriter writer = new ChunkWriter(executor, threads * 2, stored);
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                snapshotFile(source.getValue(), source.getKey(), filter, writer, lines);
+            }
+            writer.drain(0);
+
+            File snapshot = new File(snapshotsDir, name + SNAPSHOT_EXTENSION);
+            File temporary = new File(snapshotsDir, name + SNAPSHOT_EXTENSION + ".tmp");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+                out.write(SNAPSHOT_HEADER + "\n");
+                for (String line : lines) out.write(line + "\n");
+            }
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return writer.written;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public Archiver.Result restore(String name, Map<String, File> targets) throws IOException {
+        return restore(name, targets, null);
+    }
+
+    /**
+     * Restores snapshot directories and files to target directories mapped by directory name. If {@code include}
+     * is given, only files with accepted {@code name/path} are restored.
+     */
+    public Archiver.Result restore(String name, Map<String, File> targets, Predicate<String> include) throws IOException {
+        File snapshot = new File(snapshotsDir, name + SNAPSHOT_EXTENSION);
+        List<String[]> files = new ArrayList<>();
+        for (String[] values : readSnapshot(snapshot)) {
+            File target = Archiver.resolveTarget(values[1], targets);
+            if (target == null) continue;
+            if (include != null && !include.test(values[1])) continue;
+            if ("D".equals(values[0])) {
+                Files.createDirectories(target.toPath());
+            } else {
+                files.add(values);
+            }
+        }
+
+        Archiver.Result result = new Archiver.Result();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String[] values : files) {
+                File target = Archiver.resolveTarget(values[1], targets);
+                futures.add(executor.submit(() -> {
+                    restoreFile(target, values.length > 4 ? values[4] : "");
+                    result.add(Long.parseLong(values[2]));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) get(future);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Re-reads every chunk referenced by snapshot on worker pool and checks it against its SHA-256 name,
+     * returns descriptions of missing or corrupt chunks.
+     */
+    public List<String> verify(String name) throws IOException {
+        Set<String> hashes = readChunks(new File(snapshotsDir, name + SNAPSHOT_EXTENSION));
+
+        List<String> corrupt = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String hash : hashes) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        readChunk(hash, ByteStreams.nullOutputStream());
+                    } catch (IOException e) {
+                        corrupt.add(e.getMessage());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) get(future);
+        } finally {
+            executor.shutdownNow();
+        }
+        return corrupt;
+    }
+
+    /**
+     * Reads snapshot directories and files with their sizes, snapshot lists chunks of every file,
+     * so no chunk is read.
+     */
+    public Manifest readIndex(String name) throws IOException {
+        Manifest index = new Manifest(null);
+        for (String[] values : readSnapshot(new File(snapshotsDir, name + SNAPSHOT_EXTENSION))) {
+            index.add(new Manifest.Entry("D".equals(values[0]), values[1], Long.parseLong(values[2]),
+                Long.parseLong(values[3]), null, null));
+        }
+        return index;
+    }
+
+    /**
+     * Returns name of latest snapshot, {@code null} if repository has no snapshots.
+     */
+    public String resolveLatestSnapshot() {
+        List<String> names = listSnapshots();
+        return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+
+    /**
+     * Deletes snapshot {@code name}, its chunks are deleted by {@link #collectGarbage()} if no other snapshot
+     * references them.
+     */
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(resolveSnapshot(name).toPath());
+    }
+
+    public File resolveSnapshot(String name) {
+        return new File(snapshotsDir, name + SNAPSHOT_EXTENSION);
+    }
+
+    File getChunksDir() {
+        return chunksDir;
+    }
+
+    File getSnapshotsDir() {
+        return snapshotsDir;
+    }
+
+    /**
+     * Deletes chunks not referenced by any snapshot, returns count of deleted chunks.
+     */
+    public long collectGarbage() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (String name : listSnapshots()) {
+            referenced.addAll(readChunks(new File(snapshotsDir, name + SNAPSHOT_EXTENSION)));
+        }
+
+        long deleted = 0;
+        File[] prefixDirs = chunksDir.listFiles(File::isDirectory);
+        if (prefixDirs == null) return 0;
+        for (File prefixDir : prefixDirs) {
+            for (File chunk : prefixDir.listFiles()) {
+                if (referenced.contains(chunk.getName())) continue;
+                Files.delete(chunk.toPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns snapshot names from oldest to latest.
+     */
+    public List<String> listSnapshots() {
+        File[] snapshots = snapshotsDir.listFiles(f -> f.getName().endsWith(SNAPSHOT_EXTENSION));
+        if (snapshots == null) return new ArrayList<>();
+        return Arrays.stream(snapshots)
+            .map(f -> f.getName().substring(0, f.getName().length() - SNAPSHOT_EXTENSION.length()))
+            .sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+    }
+
+    private void snapshotFile(File file, String path, FileFilter filter, ChunkWriter writer, List<String> lines) throws IOException {
+        if (file.isHidden()) return;
+        if (filter != null && !filter.accept(file)) return;
+
+        if (file.isDirectory()) {
+            lines.add(String.join("\t", "D", path, "0", String.valueOf(file.lastModified())));
+            for (File child : file.listFiles()) {
+                snapshotFile(child, path + "/" + child.getName(), filter, writer, lines);
+            }
+            return;
+        }
+
+        long modified = file.lastModified();
+        String key = chunksDir + "\t" + file.getAbsolutePath();
+        StoredFile stored = STORED_FILES.get(key);
+        if (stored != null && stored.isUnchanged(file.length(), modified)
+            && stored.hashes.stream().allMatch(hash -> resolveChunk(hash).exists())) {
+            lines.add(String.join("\t", "F", path, String.valueOf(stored.size), String.valueOf(modified),
+                String.join(",", stored.hashes)));
+            return;
+        }
+
+        List<String> hashes = new ArrayList<>();
+        long size = 0;
+        try (InputStream in = IoLimiter.limitRead(new FileInputStream(file))) {
+            Chunker chunker = new Chunker(in);
+            byte[] chunk;
+            while ((chunk = chunker.next()).length > 0) {
+                hashes.add(writer.write(chunk));
+                size += chunk.length;
+            }
+        }
+        lines.add(String.join("\t", "F", path, String.valueOf(size), String.valueOf(modified), String.join(",", hashes)));
+        STORED_FILES.put(key, new StoredFile(size, modified, hashes));
+    }
+
+    private void restoreFile(File target, String chunks) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        try (OutputStream out = SparseFiles.newOutputStream(target, null)) {
+            if (chunks.isEmpty()) return;
+            for (String hash : chunks.split(",")) {
+                readChunk(hash, out);
+            }
+        }
+    }
+
+    /**
+     * Writes chunk content to {@code out} checking it against chunk hash, throws if chunk is missing or corrupt.
+     */
+    private void readChunk(String hash, OutputStream out) throws IOException {
+        File chunk = resolveChunk(hash);
+        if (!chunk.exists()) throw new IOException("Repository chunk " + hash + " not found.");
+        Hasher hasher = Hashing.sha256().newHasher();
+        try (InputStream in = new InflaterInputStream(IoLimiter.limitRead(new FileInputStream(chunk)))) {
+            byte[] buffer = new byte[1 << 16];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, length);
+                hasher.putBytes(buffer, 0, length);
+            }
+        } catch (ZipException e) {
+            throw new IOException("Repository chunk " + hash + " could not be read: " + e.getMessage(), e);
+        }
+        if (!hash.equals(hasher.hash().toString()))
+            throw new IOException("Repository chunk " + hash + " is corrupt, checksum does not match.");
+    }
+
+    File resolveChunk(String hash) {
+        return new File(new File(chunksDir, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Returns hashes of chunks referenced by snapshot file.
+     */
+    static Set<String> readChunks(File snapshot) throws IOException {
+        Set<String> hashes = new LinkedHashSet<>();
+        for (String[] values : readSnapshot(snapshot)) {
+            if ("F".equals(values[0]) && values.length > 4 && !values[4].isEmpty())
+                hashes.addAll(Arrays.asList(values[4].split(",")));
+        }
+        return hashes;
+    }
+
+    private static List<String[]> readSnapshot(File snapshot) throws IOException {
+        if (!snapshot.exists()) throw new IOException("Repository snapshot " + snapshot + " not found.");
+        List<String[]> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshot), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (!SNAPSHOT_HEADER.equals(line)) throw new IOException("Illegal repository snapshot header: " + line);
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line.split("\t", -1));
+            }
+        }
+        return lines;
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Repository operation interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Splits stream to content defined chunks: chunk ends where gear rolling hash matches the mask,
+     * but is never shorter than minimum or longer than maximum chunk size.
+     */
+    private static class Chunker {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+
+        private Chunker(InputStream in) {
+            this.in = in;
+        }
+
+        private byte[] next() throws IOException {
+            byte[] chunk = new byte[MAX_CHUNK_SIZE];
+            int length = 0;
+            long hash = 0;
+            while (length < MAX_CHUNK_SIZE) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        break;
+                    }
+                }
+                while (position < limit && length < MAX_CHUNK_SIZE) {
+                    byte value = buffer[position++];
+                    chunk[length++] = value;
+                    hash = (hash << 1) + GEAR[value & 0xFF];
+                    if (length >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0) return Arrays.copyOf(chunk, length);
+                }
+            }
+            return Arrays.copyOf(chunk, length);
+        }
+    }
+
+    /**
+     * Hashes, compresses and stores chunks on worker pool, chunks already stored or submitted by this backup
+     * are skipped.
+     */
+    private class ChunkWriter {
+
+        private final ExecutorService executor;
+        private final int maxPending;
+        private final Consumer<File> stored;
+        private final Deque<Future<?>> pending = new ArrayDeque<>();
+        private final Set<String> submitted = new HashSet<>();
+        private long written;
+
+        private ChunkWriter(ExecutorService executor, int maxPending, Consumer<File> stored) {
+            this.executor = executor;
+            this.maxPending = maxPending;
+            this.stored = stored;
+        }
+
+        private String write(byte[] chunk) throws IOException {
+            String hash = Hashing.sha256().hashBytes(chunk).toString();
+            File file = resolveChunk(hash);
+            if (!submitted.add(hash) || file.exists()) return hash;
+
+            pending.add(executor.submit(() -> CpuLimiter.call(() -> {
+                Files.createDirectories(file.getParentFile().toPath());
+                File temporary = new File(file.getParentFile(), hash + "." + Thread.currentThread().getId() + ".tmp");
+                try (OutputStream out = new DeflaterOutputStream(IoLimiter.limitWrite(new FileOutputStream(temporary)))) {
+                    out.write(chunk);
+                }
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                if (stored != null) stored.accept(file);
+                return null;
+            })));
+            written++;
+            drain(maxPending);
+            return hash;
+        }
+
+        private void drain(int limit) throws IOException {
+            while (pending.size() > limit) {
+                get(pending.poll());
+            }
+        }
+    }
+
+    private static class StoredFile {
+
+        private final long size;
+        private final long modified;
+        private final List<String> hashes;
+
+        private StoredFile(long size, long modified, List<String> hashes) {
+            this.size = size;
+            this.modified = modified;
+            this.hashes = hashes;
+        }
+
+        private boolean isUnchanged(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
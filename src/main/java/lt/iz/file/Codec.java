@@ -0,0 +1,41 @@
+package lt.iz.file;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression codec of archive entries. Entry content is encoded in blocks on worker pool and encoded blocks are
+ * written in order, so blocks of one entry must form a single stream of codec ZIP compression method. Archive
+ * records method of every entry, so restore picks decoder by entry and needs no codec settings.
+ */
+public interface Codec {
+
+    Codec STORE = new StoreCodec();
+
+    Codec FAST = new DeflateCodec("fast", Deflater.BEST_SPEED);
+
+    Codec DEFAULT = new DeflateCodec("default", Deflater.DEFAULT_COMPRESSION);
+
+    Codec HIGH = new DeflateCodec("high", Deflater.BEST_COMPRESSION);
+
+    /**
+     * Codec name recorded in backup manifest.
+     */
+    String getName();
+
+    /**
+     * ZIP compression method, e.g. {@link java.util.zip.ZipEntry#DEFLATED}.
+     */
+    int getMethod();
+
+    /**
+     * ZIP general purpose flag bits describing compression level.
+     */
+    int getFlags();
+
+    /**
+     * Encodes block of entry content, {@code dictionary} holds end of previous block, {@code null} for the first
+     * block, {@code last} is set for the last block of entry.
+     */
+    byte[] encode(byte[] block, byte[] dictionary, boolean last);
+
+}
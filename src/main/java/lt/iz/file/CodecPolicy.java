@@ -0,0 +1,17 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Chooses codec of every archived file.
+ */
+public interface CodecPolicy {
+
+    Codec select(File file) throws IOException;
+
+    static CodecPolicy of(Codec codec) {
+        return file -> codec;
+    }
+
+}
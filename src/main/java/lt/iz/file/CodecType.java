@@ -0,0 +1,30 @@
+package lt.iz.file;
+
+public enum CodecType {
+
+    /**
+     * Stores files uncompressed.
+     */
+    STORE,
+
+    /**
+     * Deflates files with the fastest level.
+     */
+    FAST,
+
+    /**
+     * Deflates files with default level.
+     */
+    DEFAULT,
+
+    /**
+     * Deflates files with the best compression level.
+     */
+    HIGH,
+
+    /**
+     * Chooses codec per file with {@link AdaptiveCodecPolicy}.
+     */
+    AUTO
+
+}
@@ -0,0 +1,30 @@
+package lt.iz.file;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits count of blocks and chunks compressed at once by all archives and repositories of the JVM. Every archive
+ * has its own pool of {@code --threads} threads, stacks backed up concurrently would run all of them at once otherwise.
+ */
+public class CpuLimiter {
+
+    public static final int DEFAULT_PERMITS = Runtime.getRuntime().availableProcessors();
+
+    private static volatile Semaphore semaphore = new Semaphore(DEFAULT_PERMITS);
+
+    public static void setPermits(int permits) {
+        if (permits < 1) throw new IllegalArgumentException("CPU permits must be positive: " + permits);
+        semaphore = new Semaphore(permits);
+    }
+
+    public static <T> T call(Callable<T> task) throws Exception {
+        Semaphore taken = semaphore;
+        taken.acquire();
+        try {
+            return task.call();
+        } finally {
+            taken.release();
+        }
+    }
+}
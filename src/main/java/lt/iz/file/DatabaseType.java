@@ -0,0 +1,8 @@
+package lt.iz.file;
+
+public enum DatabaseType {
+
+    EVENTSTORE,
+    MONGO
+
+}
@@ -0,0 +1,62 @@
+package lt.iz.file;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Deflates entry content with given level. Every block is primed with last 32KB of previous block and ends with
+ * sync flush, so concatenated blocks form a single standard deflate stream.
+ */
+public class DeflateCodec implements Codec {
+
+    private static final int FLAG_MAXIMUM = 0x2;
+    private static final int FLAG_FAST = 0x4;
+
+    private final String name;
+    private final int level;
+    private final ThreadLocal<Deflater> deflater;
+
+    public DeflateCodec(String name, int level) {
+        this.name = name;
+        this.level = level;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getMethod() {
+        return ZipEntry.DEFLATED;
+    }
+
+    @Override
+    public int getFlags() {
+        if (level == Deflater.BEST_COMPRESSION) return FLAG_MAXIMUM;
+        if (level == Deflater.BEST_SPEED) return FLAG_FAST;
+        return 0;
+    }
+
+    @Override
+    public byte[] encode(byte[] block, byte[] dictionary, boolean last) {
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(block);
+        if (last) deflater.finish();
+
+        byte[] buffer = new byte[block.length + (block.length >> 3) + 64];
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(buffer, length, buffer.length - length,
+                last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            boolean done = last ? deflater.finished() : length < buffer.length;
+            if (done) break;
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+}
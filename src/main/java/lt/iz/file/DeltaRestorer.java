@@ -0,0 +1,243 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hasher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Restores backup over existing target directories writing only what differs. Live files of the same size as
+ * archive entries are hashed with CRC32 on a worker pool and compared to CRC stored in archive, files which differ
+ * or are missing are extracted, files and directories not in backup are deleted.
+ */
+public class DeltaRestorer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int threads;
+
+    public DeltaRestorer(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Delta restore threads count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Restores archive entries {@code root/name/path} to {@code path} under target directory mapped by {@code name}.
+     */
+    public Result restore(File archiveFile, Map<String, File> targets) throws IOException {
+        try (ZipFile file = new ZipFile(archiveFile)) {
+            Delta delta = new Delta(targets);
+            delta.checksums.put(file, Archiver.readChecksums(file, Archiver.resolveRootName(archiveFile)));
+            for (ZipEntry entry : Collections.list(file.entries())) {
+                if (!entry.getName().contains("/")) continue;
+                String path = entry.getName().substring(entry.getName().indexOf("/") + 1);
+                if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+                delta.add(path, entry.isDirectory() ? null : file, entry);
+            }
+            return delta.apply();
+        }
+    }
+
+    /**
+     * Restores manifest directories and files, file content is read from archives in {@code archiveDir}
+     * referenced by manifest entries.
+     */
+    public Result restore(Manifest manifest, File archiveDir, Map<String, File> targets) throws IOException {
+        Map<String, ZipFile> files = new LinkedHashMap<>();
+        try {
+            Delta delta = new Delta(targets);
+            for (Manifest.Entry entry : manifest.getEntries()) {
+                if (entry.directory) {
+                    delta.add(entry.path, null, null);
+                    continue;
+                }
+                if (Archiver.resolveTarget(entry.path, targets) == null) continue;
+
+                ZipFile file = files.get(entry.archive);
+                if (file == null) {
+                    File archiveFile = new File(archiveDir, entry.archive);
+                    if (!archiveFile.exists())
+                        throw new IOException("Backup archive " + archiveFile + " referenced by manifest not found.");
+                    file = new ZipFile(archiveFile);
+                    files.put(entry.archive, file);
+                    delta.checksums.put(file, Archiver.readChecksums(file, Archiver.resolveRootName(archiveFile)));
+                }
+                ZipEntry zipEntry = file.getEntry(Archiver.resolveRootName(new File(entry.archive)) + "/" + entry.path);
+                if (zipEntry == null)
+                    throw new IOException("Backup archive " + entry.archive + " has no entry " + entry.path);
+                delta.add(entry.path, file, zipEntry);
+            }
+            return delta.apply();
+        } finally {
+            for (ZipFile file : files.values()) file.close();
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = IoLimiter.limitRead(new FileInputStream(file))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static long extract(ZipFile file, ZipEntry entry, File target, Checksums checksums) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        Hasher hasher = checksums.newHasher(entry);
+        long written = 0;
+        try (InputStream in = file.getInputStream(entry);
+             OutputStream out = SparseFiles.newOutputStream(target, null)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, length);
+                hasher.putBytes(buffer, 0, length);
+                written += length;
+            }
+        }
+        checksums.check(entry, hasher);
+        return written;
+    }
+
+    private static void deleteTree(File file) throws IOException {
+        if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+            File[] children = file.listFiles();
+            if (children == null) throw new IOException("Could not list directory " + file);
+            for (File child : children) deleteTree(child);
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Delta restore interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Backup directories and files resolved to target files, applied over target directories.
+     */
+    private class Delta {
+
+        private final Map<String, File> targets;
+        private final Set<File> directories = new HashSet<>();
+        private final Map<File, ZipEntry> entries = new LinkedHashMap<>();
+        private final Map<File, ZipFile> files = new LinkedHashMap<>();
+        private final Map<ZipFile, Checksums> checksums = new HashMap<>();
+        private final Result result = new Result();
+
+        private Delta(Map<String, File> targets) {
+            this.targets = targets;
+            directories.addAll(targets.values());
+        }
+
+        private void add(String path, ZipFile file, ZipEntry entry) throws IOException {
+            File target = Archiver.resolveTarget(path, targets);
+            if (target == null) return;
+            if (file == null) {
+                directories.add(target);
+            } else {
+                entries.put(target, entry);
+                files.put(target, file);
+            }
+        }
+
+        private Result apply() throws IOException {
+            for (File target : targets.values()) deleteExtras(target);
+            for (File directory : directories) Files.createDirectories(directory.toPath());
+
+            List<File> targetFiles = new ArrayList<>(entries.keySet());
+            targetFiles.sort(Comparator.comparingLong((File f) -> entries.get(f).getSize()).reversed());
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (File target : targetFiles) {
+                    futures.add(executor.submit(() -> {
+                        ZipEntry entry = entries.get(target);
+                        if (target.isFile() && target.length() == entry.getSize() && crc(target) == entry.getCrc()) {
+                            result.unchanged.incrementAndGet();
+                        } else {
+                            result.bytes.addAndGet(extract(files.get(target), entry, target, checksums.get(files.get(target))));
+                            result.written.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) get(future);
+            } finally {
+                executor.shutdownNow();
+            }
+            return result;
+        }
+
+        private void deleteExtras(File directory) throws IOException {
+            File[] children = directory.listFiles();
+            if (children == null) return;
+            for (File child : children) {
+                boolean childDirectory = child.isDirectory() && !Files.isSymbolicLink(child.toPath());
+                if (childDirectory && directories.contains(child)) {
+                    deleteExtras(child);
+                } else if (childDirectory || !entries.containsKey(child)) {
+                    deleteTree(child);
+                    result.deleted.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public static class Result {
+
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        public long getUnchanged() {
+            return unchanged.get();
+        }
+
+        public long getWritten() {
+            return written.get();
+        }
+
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package lt.iz.file;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replica target directory, e.g. on another disk or network share. Parts of unfinished uploads are kept under
+ * {@code .nano-db-uploads} directory as {@code <number>-<md5>.part} files, completed object is written to
+ * temporary file and renamed, so target never has half written objects.
+ */
+public class DirectoryReplicaTarget implements ReplicaTarget {
+
+    private static final String UPLOADS_DIR_NAME = ".nano-db-uploads";
+    private static final String PART_EXTENSION = ".part";
+
+    private final File dir;
+
+    public DirectoryReplicaTarget(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public Map<String, Long> list(String prefix, boolean recursive) throws IOException {
+        Map<String, Long> objects = new TreeMap<>();
+        File prefixDir = prefix.isEmpty() ? dir : new File(dir, prefix);
+        if (prefixDir.isDirectory()) list(prefixDir, prefix, recursive, objects);
+        return objects;
+    }
+
+    @Override
+    public long size(String name) {
+        File file = resolveFile(name);
+        return file.isFile() ? file.length() : -1;
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        File file = resolveFile(name);
+        Files.createDirectories(file.getParentFile().toPath());
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temporary.toPath(), data);
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Upload startUpload(String name) throws IOException {
+        File uploadDir = resolveUploadDir(name);
+        Files.createDirectories(uploadDir.toPath());
+        Map<Integer, String> parts = new HashMap<>();
+        for (File part : uploadDir.listFiles(f -> f.getName().endsWith(PART_EXTENSION))) {
+            String[] values = part.getName().substring(0, part.getName().length() - PART_EXTENSION.length()).split("-");
+            parts.put(Integer.parseInt(values[0]), values[1]);
+        }
+        return new Upload(name, uploadDir.getName(), parts);
+    }
+
+    @Override
+    public String uploadPart(Upload upload, int number, byte[] data) throws IOException {
+        String tag = Replicator.tag(data);
+        File uploadDir = resolveUploadDir(upload.name);
+        File[] previous = uploadDir.listFiles(f -> f.getName().startsWith(number + "-"));
+        if (previous != null) {
+            for (File file : previous) Files.delete(file.toPath());
+        }
+        File temporary = new File(uploadDir, number + ".tmp");
+        Files.write(temporary.toPath(), data);
+        Files.move(temporary.toPath(), new File(uploadDir, number + "-" + tag + PART_EXTENSION).toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+        return tag;
+    }
+
+    @Override
+    public void completeUpload(Upload upload, Map<Integer, String> parts) throws IOException {
+        File uploadDir = resolveUploadDir(upload.name);
+        File file = resolveFile(upload.name);
+        Files.createDirectories(file.getParentFile().toPath());
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary.toPath())) {
+            for (Map.Entry<Integer, String> part : new TreeMap<>(parts).entrySet()) {
+                File partFile = new File(uploadDir, part.getKey() + "-" + part.getValue() + PART_EXTENSION);
+                if (!partFile.exists()) throw new IOException("Upload part " + partFile + " not found.");
+                try (InputStream in = new FileInputStream(partFile)) {
+                    ByteStreams.copy(in, out);
+                }
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        abortUpload(upload);
+    }
+
+    @Override
+    public void abortUpload(Upload upload) throws IOException {
+        File uploadDir = resolveUploadDir(upload.name);
+        File[] files = uploadDir.listFiles();
+        if (files == null) return;
+        for (File file : files) Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(uploadDir.toPath());
+    }
+
+    @Override
+    public InputStream open(String name, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolveFile(name).toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public String toString() {
+        return dir.toString();
+    }
+
+    private void list(File directory, String prefix, boolean recursive, Map<String, Long> objects) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) throw new IOException("Could not list directory " + directory);
+        for (File child : children) {
+            if (child.getName().equals(UPLOADS_DIR_NAME) || child.getName().endsWith(".tmp")) continue;
+            if (child.isDirectory()) {
+                if (recursive) list(child, prefix + child.getName() + "/", true, objects);
+            } else {
+                objects.put(prefix + child.getName(), child.length());
+            }
+        }
+    }
+
+    private File resolveFile(String name) {
+        return new File(dir, name);
+    }
+
+    private File resolveUploadDir(String name) {
+        return new File(new File(dir, UPLOADS_DIR_NAME), name.replace("/", "_"));
+    }
+}
@@ -0,0 +1,40 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * EventStore database directory layout. Chunk files {@code chunk-NNNNNN.VVVVVV} are sealed and never
+ * change once EventStore moves to next chunk, only chunk with the highest start number is written.
+ */
+class EventStoreLayout {
+
+    private static final Pattern CHUNK_FILE_NAME = Pattern.compile("chunk-(\\d+)\\.(\\d+)");
+
+    static boolean isChunk(File file) {
+        return CHUNK_FILE_NAME.matcher(file.getName()).matches();
+    }
+
+    /**
+     * Resolves sealed chunk files of database directory, active chunk and any other files are not included.
+     */
+    static Set<File> resolveSealedChunks(File databaseDir) {
+        Set<File> sealedChunks = new HashSet<>();
+        File[] files = databaseDir.listFiles(File::isFile);
+        if (files == null) return sealedChunks;
+
+        long activeChunkNumber = -1;
+        for (File file : files) {
+            Matcher matcher = CHUNK_FILE_NAME.matcher(file.getName());
+            if (matcher.matches()) activeChunkNumber = Math.max(activeChunkNumber, Long.parseLong(matcher.group(1)));
+        }
+        for (File file : files) {
+            Matcher matcher = CHUNK_FILE_NAME.matcher(file.getName());
+            if (matcher.matches() && Long.parseLong(matcher.group(1)) < activeChunkNumber) sealedChunks.add(file);
+        }
+        return sealedChunks;
+    }
+}
@@ -0,0 +1,153 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Copies directory tree with {@link FileChannel#transferTo} on a worker pool. While sparse files are enabled, files
+ * ending with zero window are copied with {@link SparseFiles#copy} instead. Tree is walked once, directories are
+ * created first and files are copied from the largest one, so the pool does not end up waiting on one huge file.
+ */
+public class FileCopier {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final long TRANSFER_SIZE = 1 << 22;
+
+    private final int threads;
+
+    public FileCopier(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Copy threads count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    public Result copy(File src, File dest, FileFilter filter) throws IOException {
+        return copy(src, dest, filter, Collections.emptySet());
+    }
+
+    /**
+     * Copies {@code src} directory to {@code dest}, files rejected by filter are skipped. Files of {@code linkedFiles}
+     * are hard linked instead of copied, they are copied if hard link can not be created.
+     */
+    public Result copy(File src, File dest, FileFilter filter, Set<File> linkedFiles) throws IOException {
+        List<File[]> files = new ArrayList<>();
+        walk(src, dest, filter, files);
+        files.sort(Comparator.comparingLong((File[] f) -> f[0].length()).reversed());
+
+        Result result = new Result();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (File[] file : files) {
+                futures.add(executor.submit(() -> {
+                    if (linkedFiles.contains(file[0]) && link(file[0], file[1])) {
+                        result.linked.incrementAndGet();
+                    } else {
+                        result.bytes.addAndGet(copyFile(file[0], file[1]));
+                    }
+                    result.files.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) get(future);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static void walk(File src, File dest, FileFilter filter, List<File[]> files) throws IOException {
+        if (filter != null && !filter.accept(src)) return;
+        if (src.isDirectory()) {
+            Files.createDirectories(dest.toPath());
+            String[] children = src.list();
+            if (children == null) throw new IOException("Could not list directory " + src);
+            for (String child : children) {
+                walk(new File(src, child), new File(dest, child), filter, files);
+            }
+        } else {
+            files.add(new File[]{src, dest});
+        }
+    }
+
+    private static boolean link(File src, File dest) {
+        try {
+            Files.createLink(dest.toPath(), src.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log("/ FILE  / - Could not link " + src + ", file will be copied: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static long copyFile(File src, File dest) throws IOException {
+        if (SparseFiles.isEnabled() && SparseFiles.endsWithZeroWindow(src)) {
+            long copied = SparseFiles.copy(src, dest);
+            dest.setLastModified(src.lastModified());
+            return copied;
+        }
+        long copied = 0;
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            while (copied < size) {
+                long count = Math.min(size - copied, TRANSFER_SIZE);
+                IoLimiter.acquireRead(count);
+                IoLimiter.acquireWrite(count);
+                long transferred = in.transferTo(copied, count, out);
+                if (transferred <= 0) break;
+                copied += transferred;
+            }
+        }
+        dest.setLastModified(src.lastModified());
+        return copied;
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Copy interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    public static class Result {
+
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong linked = new AtomicLong();
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getLinked() {
+            return linked.get();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package lt.iz.file;
+
+import lt.iz.Logger;
+import lt.iz.tracker.Metrics;
+import lt.iz.tracker.TimeTracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Deletes directory trees off the critical path: target is renamed to a sibling directory at once, so its path
+ * can be reused right away, and renamed tree is deleted on a worker pool in background. If target can not be
+ * renamed, e.g. some file is still open, it is deleted in place before returning. Failed deletes are reported.
+ * Renamed trees left by deletions interrupted by crash or kill are deleted by {@link #deleteStale(File)}.
+ */
+public class FileDeleter {
+
+    private static final String DELETING_SUFFIX = ".deleting-";
+    private static final Pattern DELETING_NAME = Pattern.compile("(.+)" + Pattern.quote(DELETING_SUFFIX) + "\\d+");
+
+    private final int threads;
+    private final List<CompletableFuture<Void>> deletions = Collections.synchronizedList(new ArrayList<>());
+    private final Set<File> deleting = ConcurrentHashMap.newKeySet();
+
+    public FileDeleter(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Delete threads count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Moves {@code target} out of the way and deletes it in background, does nothing if target does not exist.
+     */
+    public void deleteAsync(File target) throws IOException {
+        if (!target.exists()) return;
+
+        File renamed = new File(target.getAbsoluteFile().getParentFile(),
+            target.getName() + DELETING_SUFFIX + System.currentTimeMillis());
+        try {
+            Files.move(target.toPath(), renamed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logFile("Could not move " + target + " out of the way, it will be deleted in place: " + e.getMessage());
+            delete(target);
+            return;
+        }
+        deleteRenamed(renamed);
+    }
+
+    /**
+     * Deletes in background trees renamed for deletion which were not deleted, e.g. because process was killed:
+     * siblings of {@code target} named {@code <target name>.deleting-<time>}.
+     */
+    public void deleteStale(File target) {
+        File parent = target.getAbsoluteFile().getParentFile();
+        deleteStale(parent, target.getName()::equals);
+    }
+
+    /**
+     * Deletes in background trees renamed for deletion which were not deleted from {@code dir}, whatever their
+     * original names, e.g. working directories of backup directory.
+     */
+    public void deleteStaleIn(File dir) {
+        deleteStale(dir.getAbsoluteFile(), name -> true);
+    }
+
+    private void deleteStale(File parent, Predicate<String> originalName) {
+        File[] children = parent.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            Matcher matcher = DELETING_NAME.matcher(child.getName());
+            if (!matcher.matches() || !originalName.test(matcher.group(1)) || deleting.contains(child)) continue;
+            logFile("Stale " + child + " left by interrupted deletion will be deleted.");
+            deleteRenamed(child);
+        }
+    }
+
+    private void deleteRenamed(File renamed) {
+        deleting.add(renamed);
+        String stack = Logger.getStack();
+        deletions.add(CompletableFuture.runAsync(() -> {
+            Logger.setStack(stack);
+            try {
+                delete(renamed);
+            } catch (IOException e) {
+                logFile("Could not delete " + renamed + ": " + e.getMessage());
+            } finally {
+                deleting.remove(renamed);
+                Logger.setStack(null);
+            }
+        }));
+    }
+
+    /**
+     * Deletes {@code target} tree on worker pool, throws if any file or directory could not be deleted.
+     */
+    public void delete(File target) throws IOException {
+        if (!target.exists()) return;
+
+        TimeTracker timeTracker = TimeTracker.start();
+        List<File> files = new ArrayList<>();
+        List<File> directories = new ArrayList<>();
+        walk(target, files, directories);
+        long bytes = files.stream().mapToLong(File::length).sum();
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(executor.submit(() -> deleteFile(file, failures)));
+            }
+            for (Future<?> future : futures) await(future);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            deleteFile(directories.get(i), failures);
+        }
+
+        if (!failures.isEmpty()) {
+            failures.forEach(failure -> logFile("Could not delete " + failure));
+            throw new IOException(failures.size() + " files of " + target + " could not be deleted.");
+        }
+        Metrics.record("delete", null, timeTracker, bytes, files.size());
+        logFile(target + " deleted, " + files.size() + " files.", timeTracker);
+    }
+
+    /**
+     * Waits for all background deletions started by {@link #deleteAsync(File)}.
+     */
+    public void await() {
+        List<CompletableFuture<Void>> pending;
+        synchronized (deletions) {
+            pending = new ArrayList<>(deletions);
+            deletions.clear();
+        }
+        pending.forEach(CompletableFuture::join);
+    }
+
+    private static void walk(File file, List<File> files, List<File> directories) throws IOException {
+        if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+            directories.add(file);
+            File[] children = file.listFiles();
+            if (children == null) throw new IOException("Could not list directory " + file);
+            for (File child : children) walk(child, files, directories);
+        } else {
+            files.add(file);
+        }
+    }
+
+    private static void deleteFile(File file, List<String> failures) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            failures.add(file + ": " + e);
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Delete interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void logFile(String message) {
+        log("/ FILE  / - " + message);
+    }
+
+    private static void logFile(String message, TimeTracker timeTracker) {
+        log("/ FILE  / - " + message, timeTracker);
+    }
+}
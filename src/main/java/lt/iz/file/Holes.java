@@ -0,0 +1,86 @@
+package lt.iz.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zero runs of archive entries found while archive is written, stored in archive as {@code root/nano-db-holes.txt}
+ * and keyed by full entry name. Every hole is {@code offset, length} in entry content, holes of entry are sorted.
+ * Restore seeks over holes instead of writing them.
+ */
+public class Holes {
+
+    public static final String ENTRY_NAME = "nano-db-holes.txt";
+
+    private static final String HEADER = "#nano-db-holes";
+
+    private final Map<String, List<long[]>> holes = new LinkedHashMap<>();
+
+    /**
+     * Adds hole after holes added before, hole adjacent to the previous one extends it.
+     */
+    public void add(String name, long offset, long length) {
+        List<long[]> entryHoles = holes.computeIfAbsent(name, n -> new ArrayList<>());
+        long[] last = entryHoles.isEmpty() ? null : entryHoles.get(entryHoles.size() - 1);
+        if (last != null && last[0] + last[1] == offset) {
+            last[1] += length;
+        } else {
+            entryHoles.add(new long[]{offset, length});
+        }
+    }
+
+    public void remove(String name) {
+        holes.remove(name);
+    }
+
+    public List<long[]> get(String name) {
+        return holes.getOrDefault(name, Collections.emptyList());
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(HEADER + "\n");
+        for (Map.Entry<String, List<long[]>> entryHoles : holes.entrySet()) {
+            StringBuilder ranges = new StringBuilder();
+            for (long[] hole : entryHoles.getValue()) {
+                if (ranges.length() > 0) ranges.append(",");
+                ranges.append(hole[0]).append("+").append(hole[1]);
+            }
+            writer.write(ranges + "\t" + entryHoles.getKey() + "\n");
+        }
+        writer.flush();
+    }
+
+    public static Holes read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) throw new IOException("Illegal archive holes header: " + line);
+
+        Holes holes = new Holes();
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] values = line.split("\t", 2);
+            if (values.length < 2) throw new IOException("Illegal archive holes line: " + line);
+            try {
+                for (String range : values[0].split(",")) {
+                    String[] hole = range.split("\\+", 2);
+                    holes.add(values[1], Long.parseLong(hole[0]), Long.parseLong(hole[1]));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Illegal archive holes line: " + line, e);
+            }
+        }
+        return holes;
+    }
+}
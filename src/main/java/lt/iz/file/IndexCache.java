@@ -0,0 +1,70 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps manifests and indexes of recently read archives. Daemon reads manifest of previous backup and index of
+ * the latest archive run after run, cached one is used while archive size and modification time are unchanged.
+ */
+class IndexCache {
+
+    static final String MANIFEST = "manifest";
+    static final String INDEX = "index";
+
+    private static final int MAX_ARCHIVES = 16;
+
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<String, Cached>(MAX_ARCHIVES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_ARCHIVES;
+        }
+    };
+
+    /**
+     * Returns cached {@code kind} of archive or loads and caches it, {@code null} result is cached too.
+     */
+    static Manifest get(String kind, File archiveFile, Loader loader) throws IOException {
+        String key = kind + "\t" + archiveFile.getAbsolutePath();
+        long size = archiveFile.length();
+        long modified = archiveFile.lastModified();
+        synchronized (CACHE) {
+            Cached cached = CACHE.get(key);
+            if (cached != null && cached.size == size && cached.modified == modified) return cached.manifest;
+        }
+        Manifest manifest = loader.load();
+        synchronized (CACHE) {
+            CACHE.put(key, new Cached(size, modified, manifest));
+        }
+        return manifest;
+    }
+
+    /**
+     * Caches {@code kind} of just written archive, so the next run does not read it back.
+     */
+    static void put(String kind, File archiveFile, Manifest manifest) {
+        synchronized (CACHE) {
+            CACHE.put(kind + "\t" + archiveFile.getAbsolutePath(),
+                new Cached(archiveFile.length(), archiveFile.lastModified(), manifest));
+        }
+    }
+
+    interface Loader {
+        Manifest load() throws IOException;
+    }
+
+    private static class Cached {
+
+        private final long size;
+        private final long modified;
+        private final Manifest manifest;
+
+        private Cached(long size, long modified, Manifest manifest) {
+            this.size = size;
+            this.modified = modified;
+            this.manifest = manifest;
+        }
+    }
+}
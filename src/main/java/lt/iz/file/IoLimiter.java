@@ -0,0 +1,170 @@
+package lt.iz.file;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Limits bandwidth of file reads and writes with token buckets, one permit is one byte. Read and write limits are
+ * separate and shared by all threads, {@link #UNLIMITED} turns limit off. Limits can be changed while backup runs
+ * with a control file which is re-read when it is modified.
+ */
+public class IoLimiter {
+
+    public static final int UNLIMITED = 0;
+    public static final String READ_LIMIT = "read-limit";
+    public static final String WRITE_LIMIT = "write-limit";
+
+    private static final long CONTROL_FILE_INTERVAL_IN_MILLIS = 1000;
+    private static final int MAX_PERMITS = 1 << 20;
+
+    private static final Limit read = new Limit();
+    private static final Limit write = new Limit();
+
+    private static ScheduledExecutorService watcher;
+
+    /**
+     * Sets read and write limits in MB/s, {@link #UNLIMITED} turns limit off.
+     */
+    public static synchronized void setLimits(int readMbPerSecond, int writeMbPerSecond) {
+        if (readMbPerSecond < 0 || writeMbPerSecond < 0)
+            throw new IllegalArgumentException("I/O limits must not be negative: read " + readMbPerSecond
+                + " MB/s, write " + writeMbPerSecond + " MB/s.");
+        read.setRate(readMbPerSecond);
+        write.setRate(writeMbPerSecond);
+    }
+
+    /**
+     * Re-reads {@code controlFile} every second while it is modified and applies its {@code read-limit} and
+     * {@code write-limit} properties in MB/s. Missing properties leave limits unchanged, invalid file is logged.
+     */
+    public static synchronized void watch(File controlFile) {
+        if (watcher != null) watcher.shutdownNow();
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "io-limit-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastModified = {-1};
+        Runnable reload = () -> {
+            long modified = controlFile.lastModified();
+            if (modified == 0 || modified == lastModified[0]) return;
+            lastModified[0] = modified;
+            try {
+                applyControlFile(controlFile);
+            } catch (IOException | IllegalArgumentException e) {
+                log("/ FILE  / - Could not apply I/O limits of " + controlFile + ": " + e.getMessage());
+            }
+        };
+        reload.run();
+        watcher.scheduleWithFixedDelay(reload, CONTROL_FILE_INTERVAL_IN_MILLIS, CONTROL_FILE_INTERVAL_IN_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    public static void acquireRead(long bytes) {
+        read.acquire(bytes);
+    }
+
+    public static void acquireWrite(long bytes) {
+        write.acquire(bytes);
+    }
+
+    public static InputStream limitRead(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) acquireRead(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int length = super.read(b, off, len);
+                if (length > 0) acquireRead(length);
+                return length;
+            }
+        };
+    }
+
+    public static OutputStream limitWrite(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquireWrite(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                acquireWrite(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    private static void applyControlFile(File controlFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(controlFile)) {
+            properties.load(in);
+        }
+        synchronized (IoLimiter.class) {
+            int readLimit = parseLimit(properties, READ_LIMIT, read.mbPerSecond);
+            int writeLimit = parseLimit(properties, WRITE_LIMIT, write.mbPerSecond);
+            if (readLimit == read.mbPerSecond && writeLimit == write.mbPerSecond) return;
+            setLimits(readLimit, writeLimit);
+        }
+        log("/ FILE  / - I/O limits changed: read " + describe(read.mbPerSecond) + ", write " + describe(write.mbPerSecond));
+    }
+
+    private static int parseLimit(Properties properties, String name, int current) {
+        String value = properties.getProperty(name);
+        return value == null ? current : Integer.parseInt(value.trim());
+    }
+
+    private static String describe(int mbPerSecond) {
+        return mbPerSecond == UNLIMITED ? "unlimited" : mbPerSecond + " MB/s";
+    }
+
+    /**
+     * Token bucket of one direction, limiter is {@code null} while unlimited so unlimited I/O costs one volatile read.
+     */
+    private static class Limit {
+
+        private volatile RateLimiter limiter;
+        private volatile int mbPerSecond = UNLIMITED;
+
+        private void setRate(int mbPerSecond) {
+            this.mbPerSecond = mbPerSecond;
+            if (mbPerSecond == UNLIMITED) {
+                limiter = null;
+            } else if (limiter == null) {
+                limiter = RateLimiter.create(mbPerSecond * (double) (1 << 20));
+            } else {
+                limiter.setRate(mbPerSecond * (double) (1 << 20));
+            }
+        }
+
+        private void acquire(long bytes) {
+            RateLimiter current = limiter;
+            if (current == null) return;
+            while (bytes > 0) {
+                int permits = (int) Math.min(bytes, MAX_PERMITS);
+                current.acquire(permits);
+                bytes -= permits;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package lt.iz.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Backup manifest: every directory and file of the backup with size, modification time, content hash,
+ * name of the archive holding file content and codec file content was encoded with. Paths are relative to archive root directory,
+ * e.g. {@code es/chunk-000000.000000}.
+ */
+public class Manifest {
+
+    public static final String ENTRY_NAME = "nano-db-manifest.txt";
+
+    private static final String HEADER = "#nano-db-manifest";
+    private static final String PARENT = "#parent=";
+
+    private final String parent;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public Manifest(String parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Archive name of previous backup this manifest was built on, {@code null} for full backups.
+     */
+    public String getParent() {
+        return parent;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public void add(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    public boolean isSelfContained(String archive) {
+        return entries.values().stream().allMatch(e -> e.directory || archive.equals(e.archive));
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(HEADER + "\n");
+        if (parent != null) writer.write(PARENT + parent + "\n");
+        for (Entry entry : entries.values()) {
+            writer.write(String.join("\t", entry.directory ? "D" : "F", entry.path, String.valueOf(entry.size),
+                String.valueOf(entry.modified), entry.hash == null ? "-" : entry.hash,
+                entry.archive == null ? "-" : entry.archive, entry.codec == null ? "-" : entry.codec) + "\n");
+        }
+        writer.flush();
+    }
+
+    public static Manifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) throw new IOException("Illegal backup manifest header: " + line);
+
+        Manifest manifest = null;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            if (line.startsWith(PARENT)) {
+                manifest = new Manifest(line.substring(PARENT.length()));
+                continue;
+            }
+            if (line.startsWith("#")) continue;
+            if (manifest == null) manifest = new Manifest(null);
+
+            String[] values = line.split("\t");
+            if (values.length < 6) throw new IOException("Illegal backup manifest line: " + line);
+            manifest.add(new Entry("D".equals(values[0]), values[1], Long.parseLong(values[2]),
+                Long.parseLong(values[3]), "-".equals(values[4]) ? null : values[4],
+                "-".equals(values[5]) ? null : values[5],
+                values.length < 7 || "-".equals(values[6]) ? null : values[6]));
+        }
+        return manifest == null ? new Manifest(null) : manifest;
+    }
+
+    public static class Entry {
+
+        public final boolean directory;
+        public final String path;
+        public final long size;
+        public final long modified;
+        public final String hash;
+        public final String archive;
+        public final String codec;
+
+        public Entry(boolean directory, String path, long size, long modified, String hash, String archive) {
+            this(directory, path, size, modified, hash, archive, null);
+        }
+
+        public Entry(boolean directory, String path, long size, long modified, String hash, String archive,
+                     String codec) {
+            this.directory = directory;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.archive = archive;
+            this.codec = codec;
+        }
+
+        public boolean isUnchanged(long size, long modified) {
+            return !directory && this.size == size && this.modified == modified;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package lt.iz.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * Archive written in two passes for online backup. Files which do not change while database runs are added first,
+ * database is stopped only to take snapshot of the rest, which is added after database is started again.
+ * Files of the first pass changed or deleted by the time of snapshot are dropped from archive central directory.
+ */
+class OnlineArchive implements Closeable {
+
+    private final ParallelCompressor compressor;
+    private final String rootName;
+    private final Set<String> directories = new HashSet<>();
+    private final Map<File, String> onlineEntries = new LinkedHashMap<>();
+    private final Map<File, long[]> onlineStates = new LinkedHashMap<>();
+
+    OnlineArchive(File archiveFile, String rootName, int threads, CodecPolicy codecPolicy, LongConsumer finished)
+        throws IOException {
+        this.compressor = new ParallelCompressor(archiveFile, threads, codecPolicy, finished);
+        this.rootName = rootName;
+        compressor.addDirectory(rootName, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds {@code files} of {@code sourceDir} under {@code name} directory entry while database runs,
+     * returns when all of them are written.
+     */
+    void addOnline(String name, File sourceDir, Collection<File> files) throws IOException {
+        addDirectory(name, sourceDir);
+        for (File file : files) {
+            String entryName = rootName + "/" + name + "/" + file.getName();
+            onlineStates.put(file, new long[]{file.length(), file.lastModified()});
+            onlineEntries.put(file, entryName);
+            compressor.addFile(file, entryName);
+        }
+        compressor.flush();
+    }
+
+    /**
+     * Resolves files added online which are still the same, must be called while database is stopped.
+     * Entries of changed or deleted files are dropped, snapshot must include these files.
+     */
+    Set<File> resolveUnchanged() throws IOException {
+        Set<File> unchanged = new HashSet<>();
+        for (Map.Entry<File, long[]> state : onlineStates.entrySet()) {
+            File file = state.getKey();
+            if (file.isFile() && file.length() == state.getValue()[0] && file.lastModified() == state.getValue()[1]) {
+                unchanged.add(file);
+            } else {
+                compressor.dropEntry(onlineEntries.get(file));
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Adds {@code sourceDir} tree under {@code name} directory entry, files rejected by filter are skipped.
+     */
+    void add(String name, File sourceDir, FileFilter filter) throws IOException {
+        if (!directories.contains(name)) {
+            directories.add(name);
+            Archiver.zipFile(sourceDir, rootName + "/" + name, compressor, filter);
+            return;
+        }
+        File[] children = sourceDir.listFiles();
+        if (children == null) throw new IOException("Could not list directory " + sourceDir);
+        for (File child : children) {
+            Archiver.zipFile(child, rootName + "/" + name + "/" + child.getName(), compressor, filter);
+        }
+    }
+
+    Archiver.Result getResult() {
+        return compressor.getResult();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            Archiver.addHoles(compressor, rootName);
+            Archiver.addChecksums(compressor, rootName);
+        } finally {
+            compressor.close();
+        }
+    }
+
+    private void addDirectory(String name, File sourceDir) throws IOException {
+        if (directories.add(name)) compressor.addDirectory(rootName + "/" + name, sourceDir.lastModified());
+    }
+}
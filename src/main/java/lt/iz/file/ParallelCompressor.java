@@ -0,0 +1,231 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hasher;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Writes ZIP archive encoding files in fixed size blocks on a worker pool with codec chosen by {@link CodecPolicy}.
+ * Every block gets last 32KB of previous block as dictionary, so {@link DeflateCodec} blocks form a single
+ * standard deflate stream. Reading and writing stay on the calling thread, blocks are written in order.
+ * Zero blocks are recorded as {@link Holes}, zero block following zero block or starting entry is not encoded
+ * again, its encoding depends only on codec and is reused.
+ */
+class ParallelCompressor implements Closeable {
+
+    static final int BLOCK_SIZE = 1 << 20;
+    private static final int DICTIONARY_SIZE = 1 << 15;
+
+    private static final Map<Codec, byte[]> FIRST_ZERO_BLOCKS = new ConcurrentHashMap<>();
+    private static final Map<Codec, byte[]> NEXT_ZERO_BLOCKS = new ConcurrentHashMap<>();
+
+    private final ZipWriter writer;
+    private final CodecPolicy codecPolicy;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Deque<Step> pending = new ArrayDeque<>();
+    private final Checksums checksums = new Checksums();
+    private final Archiver.Result result = new Archiver.Result();
+    private final Holes holes = new Holes();
+
+    ParallelCompressor(File archiveFile, int threads) throws IOException {
+        this(archiveFile, threads, CodecPolicy.of(Codec.DEFAULT));
+    }
+
+    ParallelCompressor(File archiveFile, int threads, CodecPolicy codecPolicy) throws IOException {
+        this(archiveFile, threads, codecPolicy, null);
+    }
+
+    /**
+     * Compressor telling {@code finished} listener, if given, archive length which is final, see {@link ZipWriter}.
+     */
+    ParallelCompressor(File archiveFile, int threads, CodecPolicy codecPolicy, LongConsumer finished) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Compression threads count must be positive: " + threads);
+        this.writer = new ZipWriter(archiveFile, finished);
+        this.codecPolicy = codecPolicy;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxPendingBlocks = threads * 2;
+    }
+
+    void addDirectory(String name, long time) throws IOException {
+        pending.add(() -> writer.putDirectory(name, time));
+        drain(maxPendingBlocks);
+    }
+
+    Codec addFile(File file, String name) throws IOException {
+        return addFile(file, name, null);
+    }
+
+    /**
+     * Adds file entry, file content is also fed to {@code hasher} if it is given. Returns codec the file is encoded with.
+     */
+    Codec addFile(File file, String name, Hasher hasher) throws IOException {
+        Codec codec = codecPolicy.select(file);
+        long length = file.length();
+        long time = file.lastModified();
+        CRC32 crc = new CRC32();
+        Hasher checksum = Checksums.newHasher();
+        pending.add(() -> writer.beginEntry(name, time, codec.getMethod(), codec.getFlags(), length));
+
+        try (InputStream in = IoLimiter.limitRead(new FileInputStream(file))) {
+            byte[] dictionary = null;
+            boolean previousZero = true;
+            byte[] block = readBlock(in);
+            long size = 0;
+            while (true) {
+                byte[] next = block.length == BLOCK_SIZE ? readBlock(in) : new byte[0];
+                boolean last = next.length == 0;
+                boolean zero = block.length > 0 && SparseFiles.isZero(block, 0, block.length);
+                crc.update(block, 0, block.length);
+                checksum.putBytes(block);
+                if (hasher != null) hasher.putBytes(block);
+                if (zero) holes.add(name, size, block.length);
+                size += block.length;
+
+                if (zero && previousZero && !last) {
+                    byte[] bytes = resolveZeroBlock(codec, dictionary == null);
+                    pending.add(() -> writer.write(bytes, 0, bytes.length));
+                } else {
+                    Future<byte[]> encoded = executor.submit(encode(codec, block, dictionary, last));
+                    pending.add(() -> {
+                        byte[] bytes = get(encoded);
+                        writer.write(bytes, 0, bytes.length);
+                    });
+                }
+                drain(maxPendingBlocks);
+
+                if (last) break;
+                dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+                previousZero = zero;
+                block = next;
+            }
+            long entrySize = size;
+            pending.add(() -> writer.endEntry(crc.getValue(), entrySize));
+        }
+        checksums.put(name, checksum.hash().toString());
+        result.add(length);
+        return codec;
+    }
+
+    void addBytes(String name, long time, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        checksums.put(name, Checksums.newHasher().putBytes(bytes).hash().toString());
+        pending.add(() -> writer.beginEntry(name, time, Codec.DEFAULT.getMethod(), Codec.DEFAULT.getFlags(), bytes.length));
+        Future<byte[]> encoded = executor.submit(encode(Codec.DEFAULT, bytes, null, true));
+        pending.add(() -> {
+            byte[] compressed = get(encoded);
+            writer.write(compressed, 0, compressed.length);
+        });
+        pending.add(() -> writer.endEntry(crc.getValue(), bytes.length));
+        drain(maxPendingBlocks);
+    }
+
+    /**
+     * Waits until all pending blocks are encoded and written.
+     */
+    void flush() throws IOException {
+        drain(0);
+    }
+
+    /**
+     * Drops entry added before from archive central directory, its checksum and holes.
+     */
+    void dropEntry(String name) throws IOException {
+        drain(0);
+        writer.dropEntry(name);
+        checksums.remove(name);
+        holes.remove(name);
+    }
+
+    /**
+     * CRC32C checksums of entries added so far, keyed by entry name.
+     */
+    Checksums getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Zero runs of entries added so far, keyed by entry name.
+     */
+    Holes getHoles() {
+        return holes;
+    }
+
+    /**
+     * Files and bytes added with {@link #addFile} so far.
+     */
+    Archiver.Result getResult() {
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain(0);
+            writer.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void drain(int limit) throws IOException {
+        while (pending.size() > limit) {
+            pending.poll().write();
+        }
+    }
+
+    private static byte[] readBlock(InputStream in) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = 0;
+        int read;
+        while (length < BLOCK_SIZE && (read = in.read(block, length, BLOCK_SIZE - length)) >= 0) {
+            length += read;
+        }
+        return length == BLOCK_SIZE ? block : Arrays.copyOf(block, length);
+    }
+
+    /**
+     * Encoding of full zero block which is not the last block of entry, dictionary of every block but the first
+     * one is zero too.
+     */
+    private static byte[] resolveZeroBlock(Codec codec, boolean first) {
+        return (first ? FIRST_ZERO_BLOCKS : NEXT_ZERO_BLOCKS).computeIfAbsent(codec,
+            c -> c.encode(new byte[BLOCK_SIZE], first ? null : new byte[DICTIONARY_SIZE], false));
+    }
+
+    private static Callable<byte[]> encode(Codec codec, byte[] block, byte[] dictionary, boolean last) {
+        return () -> CpuLimiter.call(() -> codec.encode(block, dictionary, last));
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compression interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private interface Step {
+        void write() throws IOException;
+    }
+}
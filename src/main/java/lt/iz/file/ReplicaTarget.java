@@ -0,0 +1,69 @@
+package lt.iz.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Secondary target backups are replicated to, e.g. S3 compatible object store or directory on another disk.
+ * Objects are named by paths relative to backup directory with {@code /} separators, e.g.
+ * {@code nano-db-20200101120000.zip} or {@code nano-db-repository/chunks/ab/ab12...}. Large objects are uploaded
+ * in parts, unfinished upload of the same object is resumed and its parts already uploaded are kept.
+ */
+public interface ReplicaTarget {
+
+    /**
+     * Returns sizes of objects by name, objects directly under {@code prefix} (empty or ending with {@code /}),
+     * or all objects under it if {@code recursive}.
+     */
+    Map<String, Long> list(String prefix, boolean recursive) throws IOException;
+
+    /**
+     * Returns object size, {@code -1} if object does not exist.
+     */
+    long size(String name) throws IOException;
+
+    /**
+     * Stores object at once.
+     */
+    void put(String name, byte[] data) throws IOException;
+
+    /**
+     * Starts multipart upload of object, resumes unfinished upload of the same object if there is one.
+     */
+    Upload startUpload(String name) throws IOException;
+
+    /**
+     * Uploads part {@code number}, counted from 1, returns its tag.
+     */
+    String uploadPart(Upload upload, int number, byte[] data) throws IOException;
+
+    /**
+     * Joins parts by their numbers to object, parts are given by their tags.
+     */
+    void completeUpload(Upload upload, Map<Integer, String> parts) throws IOException;
+
+    void abortUpload(Upload upload) throws IOException;
+
+    /**
+     * Reads {@code length} bytes of object from {@code offset}.
+     */
+    InputStream open(String name, long offset, long length) throws IOException;
+
+    /**
+     * Multipart upload with tags of parts uploaded before it was resumed. Tag of part is MD5 hex of its content,
+     * so part which is already uploaded is not uploaded again.
+     */
+    class Upload {
+
+        public final String name;
+        public final String id;
+        public final Map<Integer, String> parts;
+
+        public Upload(String name, String id, Map<Integer, String> parts) {
+            this.name = name;
+            this.id = id;
+            this.parts = parts;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package lt.iz.file;
+
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import lt.iz.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Replicates backups of backup directory to {@link ReplicaTarget} on worker pool. Archive being written is
+ * uploaded in parts as soon as archive is written past them (ZIP entries are final when the next entry starts,
+ * {@link ZipWriter} tells listener of {@link #track(File)} how far), repository chunks are uploaded as soon as they are stored, so replication
+ * runs while backup is compressed. Uploads are multipart, upload of archive interrupted by failed run is resumed
+ * by the next run, which uploads only parts not uploaded yet.
+ */
+public class Replicator implements Closeable {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_PART_SIZE_MB = 16;
+    public static final int MIN_PART_SIZE_MB = 5;
+
+    private final ReplicaTarget target;
+    private final File backupDir;
+    private final long partSize;
+    private final ExecutorService executor;
+    private final List<CompletableFuture<Void>> uploads = Collections.synchronizedList(new ArrayList<>());
+    private final Map<File, FileUpload> archives = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+
+    public Replicator(ReplicaTarget target, File backupDir, int threads, int partSizeMb) {
+        if (threads < 1) throw new IllegalArgumentException("Replica threads count must be positive: " + threads);
+        if (partSizeMb < MIN_PART_SIZE_MB)
+            throw new IllegalArgumentException("Replica part size must be at least " + MIN_PART_SIZE_MB + " MB: " + partSizeMb);
+        this.target = target;
+        this.backupDir = backupDir;
+        this.partSize = (long) partSizeMb << 20;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Starts replicating archive which is going to be written, must be called before archive is written.
+     * Returns listener of archive length which is final, writer of archive must tell it as archive is written.
+     */
+    public LongConsumer track(File archive) {
+        FileUpload upload = new FileUpload(archive.getAbsoluteFile());
+        archives.put(upload.file, upload);
+        return upload::advance;
+    }
+
+    /**
+     * Uploads the rest of archive written to the end and completes its upload in background.
+     */
+    public void finish(File archive) {
+        File file = archive.getAbsoluteFile();
+        FileUpload upload = archives.remove(file);
+        if (upload != null) uploads.add(upload.finish());
+    }
+
+    /**
+     * Uploads stored repository chunk in background.
+     */
+    public void replicateChunk(File chunk) {
+        uploads.add(submit(() -> put(chunk)));
+    }
+
+    /**
+     * Waits for background uploads, then uploads archives and repository snapshots which target does not have
+     * yet, e.g. because replication of previous run failed. Snapshots are uploaded after their chunks.
+     */
+    public void sync(Collection<File> archives, Collection<String> snapshots) throws IOException {
+        join(drainUploads());
+
+        Map<String, Long> replicated = target.list("", false);
+        for (File archive : archives) {
+            Long size = replicated.get(resolveName(archive));
+            if (size == null || size != archive.length()) uploads.add(new FileUpload(archive.getAbsoluteFile()).finish());
+        }
+
+        ChunkRepository repository = new ChunkRepository(backupDir, 1);
+        Map<String, Long> replicatedSnapshots = target.list(resolveName(repository.getSnapshotsDir()) + "/", false);
+        List<String> missingSnapshots = snapshots.stream()
+            .filter(s -> !replicatedSnapshots.containsKey(resolveName(repository.resolveSnapshot(s))))
+            .collect(Collectors.toList());
+        if (!missingSnapshots.isEmpty()) {
+            Map<String, Long> replicatedChunks = target.list(resolveName(repository.getChunksDir()) + "/", true);
+            Set<File> chunks = new LinkedHashSet<>();
+            for (String snapshot : missingSnapshots) {
+                for (String hash : ChunkRepository.readChunks(repository.resolveSnapshot(snapshot))) {
+                    File chunk = repository.resolveChunk(hash);
+                    if (!replicatedChunks.containsKey(resolveName(chunk))) chunks.add(chunk);
+                }
+            }
+            for (File chunk : chunks) replicateChunk(chunk);
+        }
+        join(drainUploads());
+
+        for (String snapshot : missingSnapshots) {
+            File file = repository.resolveSnapshot(snapshot);
+            uploads.add(submit(() -> put(file)));
+        }
+        join(drainUploads());
+    }
+
+    /**
+     * Returns names of archives of target, without {@code .zip}.
+     */
+    public List<String> listArchives() throws IOException {
+        return target.list("", false).keySet().stream().filter(name -> name.endsWith(".zip"))
+            .map(name -> name.substring(0, name.length() - ".zip".length())).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns names of repository snapshots of target.
+     */
+    public List<String> listSnapshots() throws IOException {
+        String prefix = resolveName(new ChunkRepository(backupDir, 1).getSnapshotsDir()) + "/";
+        return target.list(prefix, false).keySet().stream()
+            .map(name -> new File(name).getName())
+            .filter(name -> name.endsWith(ChunkRepository.SNAPSHOT_EXTENSION))
+            .map(name -> name.substring(0, name.length() - ChunkRepository.SNAPSHOT_EXTENSION.length()))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Downloads archive from target to backup directory with archives of its backup chain missing in backup
+     * directory, returns downloaded archives.
+     */
+    public List<File> fetchArchive(String name) throws IOException {
+        File archive = new File(backupDir, name + ".zip");
+        download(archive);
+        List<File> fetched = new ArrayList<>();
+        fetched.add(archive);
+
+        Manifest manifest = Archiver.readManifest(archive);
+        if (manifest != null) {
+            Set<String> chain = manifest.getEntries().stream().filter(e -> !e.directory).map(e -> e.archive)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+            for (String chainArchive : chain) {
+                File file = new File(backupDir, chainArchive);
+                if (file.exists()) continue;
+                download(file);
+                fetched.add(file);
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * Downloads repository snapshot from target to backup directory with its chunks missing in repository.
+     * Snapshot file is moved into repository after its chunks are downloaded.
+     */
+    public void fetchSnapshot(String name) throws IOException {
+        ChunkRepository repository = new ChunkRepository(backupDir, 1);
+        File snapshot = repository.resolveSnapshot(name);
+        File temporary = new File(snapshot.getParentFile(), snapshot.getName() + ".fetch");
+        download(resolveName(snapshot), temporary);
+        try {
+            Set<String> hashes = new HashSet<>(ChunkRepository.readChunks(temporary));
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for (String hash : hashes) {
+                File chunk = repository.resolveChunk(hash);
+                if (!chunk.exists()) chunks.add(submit(() -> download(chunk)));
+            }
+            join(chunks);
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * Stops replication, uploads of archives which were not finished are aborted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (FileUpload upload : archives.values()) upload.abort();
+        archives.clear();
+    }
+
+    @Override
+    public String toString() {
+        return target.toString();
+    }
+
+    /**
+     * Returns tag of upload part, MD5 hex of its content, which is ETag of part uploaded to S3.
+     */
+    static String tag(byte[] data) {
+        try {
+            return HashCode.fromBytes(MessageDigest.getInstance("MD5").digest(data)).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported.", e);
+        }
+    }
+
+    private void put(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        IoLimiter.acquireRead(data.length);
+        target.put(resolveName(file), data);
+        bytes.addAndGet(data.length);
+        files.incrementAndGet();
+    }
+
+    private void download(File file) throws IOException {
+        download(resolveName(file), file);
+    }
+
+    /**
+     * Downloads object in parts read in parallel and written at their offsets to temporary file, which is
+     * renamed to {@code file} when all parts are written.
+     */
+    private void download(String name, File file) throws IOException {
+        long size = target.size(name);
+        if (size < 0) throw new IOException("Replica object " + name + " not found in " + target);
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".download");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                List<CompletableFuture<Void>> parts = new ArrayList<>();
+                for (long offset = 0; offset < size; offset += partSize) {
+                    long start = offset;
+                    int length = (int) Math.min(partSize, size - offset);
+                    Task task = () -> {
+                        byte[] data = new byte[length];
+                        try (InputStream in = target.open(name, start, length)) {
+                            ByteStreams.readFully(in, data);
+                        }
+                        IoLimiter.acquireWrite(length);
+                        ByteBuffer buffer = ByteBuffer.wrap(data);
+                        while (buffer.hasRemaining()) channel.write(buffer, start + buffer.position());
+                    };
+                    if (size <= partSize) {
+                        task.run();
+                    } else {
+                        parts.add(submit(task));
+                    }
+                }
+                join(parts);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        bytes.addAndGet(size);
+        files.incrementAndGet();
+    }
+
+    private String resolveName(File file) {
+        return backupDir.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    private List<CompletableFuture<Void>> drainUploads() {
+        synchronized (uploads) {
+            List<CompletableFuture<Void>> pending = new ArrayList<>(uploads);
+            uploads.clear();
+            return pending;
+        }
+    }
+
+    private CompletableFuture<Void> submit(Task task) {
+        String stack = Logger.getStack();
+        return CompletableFuture.runAsync(() -> {
+            Logger.setStack(stack);
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                Logger.setStack(null);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits for all futures, throws with the first failure if any failed.
+     */
+    private static void join(List<CompletableFuture<Void>> futures) throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+                failures.add(String.valueOf(cause.getMessage()));
+            }
+        }
+        if (!failures.isEmpty())
+            throw new IOException(failures.size() + " of " + futures.size() + " replica transfers failed: " + failures.get(0));
+    }
+
+    private static void logFile(String message) {
+        log("/ FILE  / - " + message);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Multipart upload of file, parts are submitted as file is written past them. Target upload is started
+     * by the first part, parts resumed upload already has with the same content are skipped.
+     */
+    private class FileUpload {
+
+        private final File file;
+        private final String name;
+        private final List<CompletableFuture<Void>> parts = new ArrayList<>();
+        private final Map<Integer, String> tags = new ConcurrentHashMap<>();
+        private final Object uploadLock = new Object();
+        private ReplicaTarget.Upload upload;
+        private int submitted;
+
+        private FileUpload(File file) {
+            this.file = file;
+            this.name = resolveName(file);
+        }
+
+        private synchronized void advance(long offset) {
+            while ((submitted + 1) * partSize <= offset) {
+                submitPart(submitted++, partSize);
+            }
+        }
+
+        private synchronized CompletableFuture<Void> finish() {
+            long length = file.length();
+            if (length <= partSize && submitted == 0) return submit(() -> put(file));
+            while (submitted * partSize < length) {
+                long offset = submitted * partSize;
+                submitPart(submitted++, Math.min(partSize, length - offset));
+            }
+            CompletableFuture<Void> uploaded = CompletableFuture.completedFuture(null);
+            for (CompletableFuture<Void> part : parts) uploaded = uploaded.thenCombine(part, (a, b) -> null);
+            return uploaded
+                .thenCompose(ignored -> submit(() -> {
+                    target.completeUpload(resolveUpload(), tags);
+                    files.incrementAndGet();
+                }));
+        }
+
+        private void submitPart(int index, long length) {
+            parts.add(submit(() -> uploadPart(index + 1, index * partSize, (int) length)));
+        }
+
+        private void uploadPart(int number, long offset, int length) throws IOException {
+            byte[] data = new byte[length];
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.seek(offset);
+                in.readFully(data);
+            }
+            IoLimiter.acquireRead(length);
+            String tag = tag(data);
+            ReplicaTarget.Upload resolved = resolveUpload();
+            if (!tag.equals(resolved.parts.get(number))) {
+                tag = target.uploadPart(resolved, number, data);
+                bytes.addAndGet(length);
+            }
+            tags.put(number, tag);
+        }
+
+        private ReplicaTarget.Upload resolveUpload() throws IOException {
+            synchronized (uploadLock) {
+                if (upload == null) {
+                    upload = target.startUpload(name);
+                    if (!upload.parts.isEmpty())
+                        logFile("Resuming upload of " + name + " to " + target + ", " + upload.parts.size() + " parts uploaded before.");
+                }
+                return upload;
+            }
+        }
+
+        private void abort() {
+            ReplicaTarget.Upload started;
+            synchronized (uploadLock) {
+                started = upload;
+            }
+            if (started == null) return;
+            try {
+                target.abortUpload(started);
+            } catch (IOException e) {
+                logFile("Could not abort upload of " + name + " to " + target + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package lt.iz.file;
+
+public enum RestoreMode {
+
+    /**
+     * Extracts archive to working directory, copies it to database directories and deletes working directory.
+     */
+    COPY,
+
+    /**
+     * Extracts archive entries directly to database directories, no working directory is created.
+     */
+    STREAM,
+
+    /**
+     * Extracts archive to staging directories next to database directories while services are running, then stops
+     * services, swaps staging and database directories with renames and starts services.
+     */
+    STAGED,
+
+    /**
+     * Restores archive over database directories writing only files which differ from backup by size or CRC,
+     * missing files are added and files not in backup are deleted.
+     */
+    DELTA
+
+}
@@ -0,0 +1,117 @@
+package lt.iz.file;
+
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Retention policy of backups: keeps {@code last} latest backups and the latest backup of each of {@code hourly}
+ * latest hours, {@code daily} latest days and {@code weekly} latest weeks having backups. The latest backup is
+ * always kept, so are archives holding files of kept incremental backups, which are listed in their manifests.
+ * Older archives of an incremental chain whose files were all changed since are pruned. Repository snapshots are limited to {@code snapshots} latest ones, including snapshot being written, even if
+ * other rules keep them.
+ */
+public class Retention {
+
+    private final int last;
+    private final int hourly;
+    private final int daily;
+    private final int weekly;
+    private final int snapshots;
+
+    public Retention(int last, int hourly, int daily, int weekly) {
+        this(last, hourly, daily, weekly, 0);
+    }
+
+    public Retention(int last, int hourly, int daily, int weekly, int snapshots) {
+        if (last < 0 || hourly < 0 || daily < 0 || weekly < 0 || snapshots < 0)
+            throw new IllegalArgumentException("Retention counts must not be negative.");
+        this.last = last;
+        this.hourly = hourly;
+        this.daily = daily;
+        this.weekly = weekly;
+        this.snapshots = snapshots;
+    }
+
+    public boolean isEnabled() {
+        return isPeriodic() || snapshots > 0;
+    }
+
+    private boolean isPeriodic() {
+        return last > 0 || hourly > 0 || daily > 0 || weekly > 0;
+    }
+
+    /**
+     * Returns backups not kept by policy, {@code entries} are ordered from oldest to latest. Snapshot being written
+     * if {@code snapshotPending}, which is not in {@code entries} yet, counts to limit of repository snapshots.
+     * Backups referenced by kept backups are resolved by {@code references}.
+     */
+    public List<Catalog.Entry> resolvePruned(List<Catalog.Entry> entries, boolean snapshotPending,
+                                             References references) throws IOException {
+        if (!isEnabled() || entries.isEmpty()) return Collections.emptyList();
+        List<Catalog.Entry> latestFirst = new ArrayList<>(entries);
+        latestFirst.sort(Catalog.ORDER.reversed());
+
+        Set<String> kept = new HashSet<>();
+        if (!isPeriodic()) {
+            for (Catalog.Entry entry : entries) kept.add(entry.name);
+        }
+        kept.add(latestFirst.get(0).name);
+        for (int i = 0; i < Math.min(last, latestFirst.size()); i++) kept.add(latestFirst.get(i).name);
+        keepLatestOfPeriods(latestFirst, hourly, created -> created.truncatedTo(ChronoUnit.HOURS), kept);
+        keepLatestOfPeriods(latestFirst, daily, created -> created.truncatedTo(ChronoUnit.DAYS), kept);
+        keepLatestOfPeriods(latestFirst, weekly, created -> created.truncatedTo(ChronoUnit.DAYS)
+            .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)), kept);
+
+        Map<String, Catalog.Entry> byName = new HashMap<>();
+        for (Catalog.Entry entry : entries) byName.put(entry.name, entry);
+        for (String name : new ArrayList<>(kept)) {
+            Catalog.Entry entry = byName.get(name);
+            if (entry != null) kept.addAll(references.resolve(entry));
+        }
+
+        if (snapshots > 0) {
+            int count = snapshotPending ? 1 : 0;
+            for (Catalog.Entry entry : latestFirst) {
+                if (Catalog.SNAPSHOT.equals(entry.kind) && ++count > snapshots) kept.remove(entry.name);
+            }
+        }
+
+        List<Catalog.Entry> pruned = new ArrayList<>();
+        for (Catalog.Entry entry : entries) {
+            if (!kept.contains(entry.name)) pruned.add(entry);
+        }
+        return pruned;
+    }
+
+    private static void keepLatestOfPeriods(List<Catalog.Entry> latestFirst, int periods,
+                                            Function<LocalDateTime, LocalDateTime> period, Set<String> kept) {
+        LocalDateTime previous = null;
+        int count = 0;
+        for (Catalog.Entry entry : latestFirst) {
+            if (count >= periods) return;
+            LocalDateTime current = period.apply(entry.created);
+            if (current.equals(previous)) continue;
+            kept.add(entry.name);
+            previous = current;
+            count++;
+        }
+    }
+
+    public interface References {
+        /**
+         * Returns names of backups holding files of given backup, including backup itself.
+         */
+        Set<String> resolve(Catalog.Entry entry) throws IOException;
+    }
+}
@@ -0,0 +1,395 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Replica target in S3 compatible object store (AWS S3, MinIO, Ceph) given by {@code s3://bucket/prefix}.
+ * Requests are signed by AWS Signature Version 4 with credentials of {@code AWS_ACCESS_KEY_ID} and
+ * {@code AWS_SECRET_ACCESS_KEY} environment variables. Bucket is addressed in path style, so it works with
+ * any endpoint. Requests failed by I/O error or HTTP 5xx are retried with growing delay.
+ */
+public class S3ReplicaTarget implements ReplicaTarget {
+
+    public static final String SCHEME = "s3://";
+    public static final String DEFAULT_REGION = "us-east-1";
+
+    private static final int ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter TIME_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final String endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+
+    /**
+     * Target of {@code s3://bucket/prefix} url, {@code endpoint} defaults to AWS S3 endpoint of region.
+     */
+    public S3ReplicaTarget(String url, String endpoint, String region, String accessKey, String secretKey) {
+        if (!url.startsWith(SCHEME)) throw new IllegalArgumentException("Illegal S3 replica url: " + url);
+        String path = url.substring(SCHEME.length());
+        String[] parts = path.split("/", 2);
+        if (parts[0].isEmpty()) throw new IllegalArgumentException("Illegal S3 replica url, bucket not specified: " + url);
+        this.bucket = parts[0];
+        String objectPrefix = parts.length > 1 ? parts[1].replaceAll("^/+|/+$", "") : "";
+        this.prefix = objectPrefix.isEmpty() ? "" : objectPrefix + "/";
+        this.region = region == null ? DEFAULT_REGION : region;
+        this.endpoint = (endpoint == null ? "https://s3." + this.region + ".amazonaws.com" : endpoint).replaceAll("/+$", "");
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * Target with credentials of environment variables.
+     */
+    public static S3ReplicaTarget of(String url, String endpoint, String region) {
+        String accessKey = System.getenv("AWS_ACCESS_KEY_ID");
+        String secretKey = System.getenv("AWS_SECRET_ACCESS_KEY");
+        if (accessKey == null || secretKey == null)
+            throw new IllegalArgumentException("S3 replica needs AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY environment variables.");
+        return new S3ReplicaTarget(url, endpoint, region, accessKey, secretKey);
+    }
+
+    @Override
+    public Map<String, Long> list(String listPrefix, boolean recursive) throws IOException {
+        Map<String, Long> objects = new TreeMap<>();
+        String token = null;
+        do {
+            Map<String, String> query = new HashMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", prefix + listPrefix);
+            if (!recursive) query.put("delimiter", "/");
+            if (token != null) query.put("continuation-token", token);
+            Element result = parse(check(request("GET", null, query, null, Collections.emptyMap()), 200));
+            NodeList contents = result.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element content = (Element) contents.item(i);
+                objects.put(text(content, "Key").substring(prefix.length()), Long.parseLong(text(content, "Size")));
+            }
+            token = "true".equals(text(result, "IsTruncated")) ? text(result, "NextContinuationToken") : null;
+        } while (token != null);
+        return objects;
+    }
+
+    @Override
+    public long size(String name) throws IOException {
+        Response response = request("HEAD", name, Collections.emptyMap(), null, Collections.emptyMap());
+        if (response.status == 404) return -1;
+        check(response, 200);
+        return Long.parseLong(response.headers.get("Content-Length"));
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        check(request("PUT", name, Collections.emptyMap(), data, Collections.emptyMap()), 200);
+    }
+
+    @Override
+    public Upload startUpload(String name) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        query.put("uploads", "");
+        query.put("prefix", prefix + name);
+        Element uploads = parse(check(request("GET", null, query, null, Collections.emptyMap()), 200));
+        String uploadId = null;
+        NodeList nodes = uploads.getElementsByTagName("Upload");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element upload = (Element) nodes.item(i);
+            if ((prefix + name).equals(text(upload, "Key"))) uploadId = text(upload, "UploadId");
+        }
+        if (uploadId != null) return new Upload(name, uploadId, listParts(name, uploadId));
+
+        Element initiated = parse(check(request("POST", name, Collections.singletonMap("uploads", ""), new byte[0],
+            Collections.emptyMap()), 200));
+        return new Upload(name, text(initiated, "UploadId"), new HashMap<>());
+    }
+
+    @Override
+    public String uploadPart(Upload upload, int number, byte[] data) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        query.put("partNumber", String.valueOf(number));
+        query.put("uploadId", upload.id);
+        Response response = request("PUT", upload.name, query, data, Collections.emptyMap());
+        check(response, 200);
+        return unquote(response.headers.get("ETag"));
+    }
+
+    @Override
+    public void completeUpload(Upload upload, Map<Integer, String> parts) throws IOException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (Map.Entry<Integer, String> part : new TreeMap<>(parts).entrySet()) {
+            body.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber><ETag>\"")
+                .append(part.getValue()).append("\"</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        Response response = request("POST", upload.name, Collections.singletonMap("uploadId", upload.id),
+            body.toString().getBytes(StandardCharsets.UTF_8), Collections.emptyMap());
+        check(response, 200);
+        if (new String(response.body, StandardCharsets.UTF_8).contains("<Error>"))
+            throw new IOException("S3 upload of " + upload.name + " could not be completed: " + describe(response));
+    }
+
+    @Override
+    public void abortUpload(Upload upload) throws IOException {
+        Response response = request("DELETE", upload.name, Collections.singletonMap("uploadId", upload.id), null,
+            Collections.emptyMap());
+        if (response.status != 404) check(response, 204);
+    }
+
+    @Override
+    public InputStream open(String name, long offset, long length) throws IOException {
+        if (length == 0) return new ByteArrayInputStream(new byte[0]);
+        Response response = request("GET", name, Collections.emptyMap(), null,
+            Collections.singletonMap("range", "bytes=" + offset + "-" + (offset + length - 1)));
+        if (response.status == 200) {
+            // server ignored range and sent whole object, which is the requested range only if it starts at 0
+            // and is as long as the object
+            if (offset != 0 || response.body.length != length)
+                throw new IOException("S3 GET " + name + " ignored range " + offset + "-" + (offset + length - 1)
+                    + ", returned whole object of " + response.body.length + " bytes.");
+            return new ByteArrayInputStream(response.body);
+        }
+        byte[] body = check(response, 206);
+        String range = response.headers.get("Content-Range");
+        String expected = "bytes " + offset + "-" + (offset + length - 1) + "/";
+        if (range == null || !range.startsWith(expected) || body.length != length)
+            throw new IOException("S3 GET " + name + " returned range " + range + " of " + body.length
+                + " bytes, expected " + expected + "* of " + length + " bytes.");
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public String toString() {
+        return SCHEME + bucket + "/" + prefix;
+    }
+
+    private Map<Integer, String> listParts(String name, String uploadId) throws IOException {
+        Map<Integer, String> parts = new HashMap<>();
+        String marker = null;
+        do {
+            Map<String, String> query = new HashMap<>();
+            query.put("uploadId", uploadId);
+            if (marker != null) query.put("part-number-marker", marker);
+            Element result = parse(check(request("GET", name, query, null, Collections.emptyMap()), 200));
+            NodeList nodes = result.getElementsByTagName("Part");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element part = (Element) nodes.item(i);
+                parts.put(Integer.parseInt(text(part, "PartNumber")), unquote(text(part, "ETag")));
+            }
+            marker = "true".equals(text(result, "IsTruncated")) ? text(result, "NextPartNumberMarker") : null;
+        } while (marker != null);
+        return parts;
+    }
+
+    /**
+     * Sends signed request of object {@code name}, of bucket if {@code name} is {@code null}, retrying it
+     * on I/O errors and server errors.
+     */
+    private Response request(String method, String name, Map<String, String> query, byte[] body,
+                             Map<String, String> headers) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Response response = send(method, name, query, body, headers);
+                if (response.status < 500 || attempt == ATTEMPTS) return response;
+                logFile("S3 " + method + " " + describeObject(name) + " failed with HTTP " + response.status + ", retrying.");
+            } catch (IOException e) {
+                if (attempt == ATTEMPTS) throw e;
+                logFile("S3 " + method + " " + describeObject(name) + " failed, retrying: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("S3 request interrupted.", e);
+            }
+        }
+    }
+
+    private Response send(String method, String name, Map<String, String> query, byte[] body,
+                          Map<String, String> headers) throws IOException {
+        String path = "/" + encode(bucket, false) + (name == null ? "" : "/" + encode(prefix + name, true));
+        String canonicalQuery = query.entrySet().stream()
+            .map(e -> encode(e.getKey(), false) + "=" + encode(e.getValue(), false))
+            .sorted().collect(Collectors.joining("&"));
+        URL url = new URL(endpoint + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        String time = TIME_FORMATTER.format(Instant.now());
+        String payloadHash = Hashing.sha256().hashBytes(body == null ? new byte[0] : body).toString();
+        Map<String, String> signedHeaders = new TreeMap<>();
+        headers.forEach((key, value) -> signedHeaders.put(key.toLowerCase(), value));
+        signedHeaders.put("host", url.getPort() == -1 || url.getPort() == url.getDefaultPort()
+            ? url.getHost() : url.getHost() + ":" + url.getPort());
+        signedHeaders.put("x-amz-content-sha256", payloadHash);
+        signedHeaders.put("x-amz-date", time);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+                if (!"host".equals(header.getKey())) connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setRequestProperty("Authorization",
+                authorize(method, path, canonicalQuery, signedHeaders, payloadHash, time));
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            Map<String, String> responseHeaders = new HashMap<>();
+            connection.getHeaderFields().forEach((key, values) -> {
+                if (key != null && !values.isEmpty()) responseHeaders.put(key, values.get(0));
+            });
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            byte[] responseBody;
+            if (in == null) {
+                responseBody = new byte[0];
+            } else {
+                try (InputStream stream = in) {
+                    responseBody = ByteStreams.toByteArray(stream);
+                }
+            }
+            return new Response(method, name, status, caseInsensitive(responseHeaders), responseBody);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Builds {@code Authorization} header value of AWS Signature Version 4.
+     */
+    String authorize(String method, String path, String canonicalQuery, Map<String, String> signedHeaders,
+                     String payloadHash, String time) {
+        String date = time.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String headerNames = String.join(";", signedHeaders.keySet());
+        String canonicalRequest = String.join("\n", method, path, canonicalQuery,
+            signedHeaders.entrySet().stream().map(e -> e.getKey() + ":" + e.getValue().trim() + "\n")
+                .collect(Collectors.joining()),
+            headerNames, payloadHash);
+        String stringToSign = String.join("\n", ALGORITHM, time, scope,
+            Hashing.sha256().hashString(canonicalRequest, StandardCharsets.UTF_8).toString());
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = Hashing.hmacSha256(key).hashString(stringToSign, StandardCharsets.UTF_8).toString();
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + headerNames
+            + ", Signature=" + signature;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        return Hashing.hmacSha256(key).hashString(data, StandardCharsets.UTF_8).asBytes();
+    }
+
+    /**
+     * URI encodes every byte but unreserved characters, and {@code /} of object key paths.
+     */
+    static String encode(String value, boolean path) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~' || (path && c == '/')) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] check(Response response, int expected) throws IOException {
+        if (response.status != expected)
+            throw new IOException("S3 " + response.method + " " + describeObject(response.name) + " failed: "
+                + describe(response));
+        return response.body;
+    }
+
+    private static Element parse(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+            return document.getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Illegal S3 response: " + e.getMessage(), e);
+        }
+    }
+
+    private static String text(Element element, String tag) {
+        NodeList nodes = element.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    private static String unquote(String tag) {
+        return tag == null ? null : tag.replace("\"", "");
+    }
+
+    private static String describe(Response response) {
+        String body = new String(response.body, StandardCharsets.UTF_8);
+        return "HTTP " + response.status + (body.isEmpty() ? "" : " " + (body.length() > 300 ? body.substring(0, 300) : body));
+    }
+
+    private static String describeObject(String name) {
+        return name == null ? "bucket" : name;
+    }
+
+    private static Map<String, String> caseInsensitive(Map<String, String> headers) {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        map.putAll(headers);
+        return map;
+    }
+
+    private static void logFile(String message) {
+        log("/ FILE  / - " + message);
+    }
+
+    private static class Response {
+
+        private final String method;
+        private final String name;
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private Response(String method, String name, int status, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.name = name;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
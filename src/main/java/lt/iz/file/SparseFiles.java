@@ -0,0 +1,157 @@
+package lt.iz.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes restored and copied files sparse: content is written in aligned windows and windows of zeros are
+ * skipped by seeking, so preallocated database files do not allocate disk space for their zero regions.
+ * Sparse writing can be turned off, then files are written in full.
+ */
+public class SparseFiles {
+
+    static final int WINDOW_SIZE = 1 << 16;
+
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    private static volatile boolean enabled = true;
+
+    public static void setEnabled(boolean enabled) {
+        SparseFiles.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isZero(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Opens new {@code target} file replacing existing one. Ranges of {@code holes} are known to be zero and are
+     * skipped without checking, other zero windows are detected while written.
+     */
+    public static OutputStream newOutputStream(File target, List<long[]> holes) throws IOException {
+        if (!enabled) return IoLimiter.limitWrite(new FileOutputStream(target));
+        Files.deleteIfExists(target.toPath());
+        FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        return new SparseOutputStream(channel, holes == null ? Collections.emptyList() : holes);
+    }
+
+    /**
+     * Tells if file ends with zero window, like preallocated database files do, by reading its last window only.
+     * Copying such file sparse saves disk space, other files are cheaper to copy in full with zero copy transfer.
+     */
+    public static boolean endsWithZeroWindow(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < WINDOW_SIZE) return false;
+            ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+            long position = size - WINDOW_SIZE;
+            while (window.hasRemaining()) {
+                if (channel.read(window, position + window.position()) < 0) return false;
+            }
+            IoLimiter.acquireRead(WINDOW_SIZE);
+            return isZero(window.array(), 0, WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * Copies {@code src} to {@code dest} skipping zero windows, returns bytes copied.
+     */
+    public static long copy(File src, File dest) throws IOException {
+        long copied = 0;
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+             OutputStream out = newOutputStream(dest, null)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                IoLimiter.acquireRead(length);
+                out.write(buffer.array(), 0, length);
+                buffer.clear();
+                copied += length;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Buffers content in windows aligned to file start, window is written if it is not in a known hole and has
+     * non zero bytes, otherwise file position is moved past it. File is extended to full length on close.
+     */
+    private static class SparseOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final List<long[]> holes;
+        private final byte[] window = new byte[WINDOW_SIZE];
+        private int filled;
+        private long position;
+        private int hole;
+
+        private SparseOutputStream(FileChannel channel, List<long[]> holes) {
+            this.channel = channel;
+            this.holes = holes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            window[filled++] = (byte) b;
+            if (filled == WINDOW_SIZE) flushWindow();
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, WINDOW_SIZE - filled);
+                System.arraycopy(bytes, offset, window, filled, count);
+                filled += count;
+                offset += count;
+                length -= count;
+                if (filled == WINDOW_SIZE) flushWindow();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushWindow();
+                if (channel.size() < position) channel.write(ByteBuffer.wrap(new byte[1]), position - 1);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void flushWindow() throws IOException {
+            if (filled == 0) return;
+            if (!isHole(position, filled) && !isZero(window, 0, filled)) {
+                IoLimiter.acquireWrite(filled);
+                ByteBuffer buffer = ByteBuffer.wrap(window, 0, filled);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+            }
+            position += filled;
+            filled = 0;
+        }
+
+        private boolean isHole(long offset, int length) {
+            while (hole < holes.size() && holes.get(hole)[0] + holes.get(hole)[1] <= offset) hole++;
+            if (hole == holes.size()) return false;
+            long[] current = holes.get(hole);
+            return current[0] <= offset && offset + length <= current[0] + current[1];
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package lt.iz.file;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * Stores entry content as is, for data which is compressed already.
+ */
+public class StoreCodec implements Codec {
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public int getMethod() {
+        return ZipEntry.STORED;
+    }
+
+    @Override
+    public int getFlags() {
+        return 0;
+    }
+
+    @Override
+    public byte[] encode(byte[] block, byte[] dictionary, boolean last) {
+        return block;
+    }
+}
@@ -0,0 +1,60 @@
+package lt.iz.file;
+
+import lt.iz.tracker.StageRunner.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits count of stages doing I/O on the same volume at once. Stage takes one permit of every distinct
+ * volume of its files, permits are always taken in the same volume order, so stages can not deadlock.
+ */
+public class VolumeLimiter {
+
+    public static final int DEFAULT_PERMITS_PER_VOLUME = 2;
+
+    private static final Map<FileStore, Semaphore> SEMAPHORES = new ConcurrentHashMap<>();
+    private static volatile int permitsPerVolume = DEFAULT_PERMITS_PER_VOLUME;
+
+    public static void setPermitsPerVolume(int permits) {
+        if (permits < 1) throw new IllegalArgumentException("I/O permits per volume must be positive: " + permits);
+        permitsPerVolume = permits;
+    }
+
+    public static void run(Stage stage, File... files) throws IOException, InterruptedException {
+        Set<FileStore> volumes = new LinkedHashSet<>();
+        for (File file : files) {
+            if (file != null) volumes.add(resolveVolume(file));
+        }
+        List<FileStore> ordered = new ArrayList<>(volumes);
+        ordered.sort(Comparator.comparing(FileStore::toString));
+
+        List<Semaphore> acquired = new ArrayList<>();
+        try {
+            for (FileStore volume : ordered) {
+                Semaphore semaphore = SEMAPHORES.computeIfAbsent(volume, v -> new Semaphore(permitsPerVolume));
+                semaphore.acquire();
+                acquired.add(semaphore);
+            }
+            stage.run();
+        } finally {
+            acquired.forEach(Semaphore::release);
+        }
+    }
+
+    private static FileStore resolveVolume(File file) throws IOException {
+        File existing = file.getAbsoluteFile();
+        while (!existing.exists() && existing.getParentFile() != null) existing = existing.getParentFile();
+        return Files.getFileStore(existing.toPath());
+    }
+}
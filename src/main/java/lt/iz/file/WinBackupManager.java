@@ -1,18 +1,38 @@
 package lt.iz.file;
 
+import lt.iz.Logger;
+import lt.iz.Params;
+import lt.iz.service.ServiceManager;
+import lt.iz.tracker.Metrics;
+import lt.iz.tracker.StageRunner;
+import lt.iz.tracker.StageRunner.Stage;
 import lt.iz.tracker.TimeTracker;
-import org.apache.commons.io.FileUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static java.time.LocalDateTime.now;
@@ -20,91 +40,869 @@ import static lt.iz.Logger.log;
 
 public class WinBackupManager implements BackupManager {
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
-    private static final String BACKUP_DIR_NAME_PREFIX = "nano-db-";
+    static final String BACKUP_DIR_NAME_PREFIX = "nano-db-";
 
+    private static final String STAGING_DIR_SUFFIX = ".restore-staging";
+
+    public static final List<String> DEFAULT_EVENTSTORE_SKIP = Collections.singletonList("log");
+
+    private static final Set<DatabaseType> ALL_DATABASES = Collections.unmodifiableSet(EnumSet.allOf(DatabaseType.class));
+
+    private ServiceManager serviceManager;
     private File backupDir;
     private File eventStoreDatabaseDir;
     private File mongoDatabaseDir;
+    private List<PathMatcher> eventStoreSkip;
+    private List<PathMatcher> mongoSkip;
+    private BackupMode backupMode;
+    private RestoreMode restoreMode;
+    private int threads;
+    private CodecPolicy codecPolicy;
+    private Retention retention;
+    private Catalog catalog;
+    private ReplicaTarget replicaTarget;
+    private int replicaThreads;
+    private int replicaPartSize;
+    private Replicator replicator;
+    private FileCopier fileCopier;
+    private FileDeleter fileDeleter;
+    private DeltaRestorer deltaRestorer;
+    private String archiveName;
+    private Set<DatabaseType> databases;
+    private Predicate<String> include;
+    private Boolean verifyBeforeRestore;
     private File workingDir;
 
-    public WinBackupManager(File backupDir, File eventStoreDatabaseDir, File mongoDatabaseDir) {
+    public WinBackupManager(ServiceManager serviceManager, File backupDir, File eventStoreDatabaseDir, File mongoDatabaseDir) {
+        this.serviceManager = serviceManager;
         this.backupDir = backupDir;
         this.eventStoreDatabaseDir = eventStoreDatabaseDir;
         this.mongoDatabaseDir = mongoDatabaseDir;
+        this.eventStoreSkip = resolveSkipMatchers(DEFAULT_EVENTSTORE_SKIP);
+        this.mongoSkip = Collections.emptyList();
+        this.backupMode = BackupMode.COPY;
+        this.restoreMode = RestoreMode.COPY;
+        this.threads = Archiver.DEFAULT_THREADS;
+        this.codecPolicy = CodecPolicy.of(Codec.DEFAULT);
+        this.fileCopier = new FileCopier(FileCopier.DEFAULT_THREADS);
+        this.fileDeleter = new FileDeleter(FileCopier.DEFAULT_THREADS);
+        this.deltaRestorer = new DeltaRestorer(FileCopier.DEFAULT_THREADS);
+        this.databases = ALL_DATABASES;
+        this.retention = new Retention(0, 0, 0, 0);
+        this.replicaThreads = Replicator.DEFAULT_THREADS;
+        this.replicaPartSize = Replicator.DEFAULT_PART_SIZE_MB;
+    }
 
+    public WinBackupManager(Params params, ServiceManager serviceManager) {
+        this(serviceManager, params.backupDir, params.eventStore.directory, params.mongo.directory);
+        this.eventStoreSkip = resolveSkipMatchers(params.eventStore.skip);
+        this.mongoSkip = resolveSkipMatchers(params.mongo.skip);
+        this.backupMode = params.backupMode;
+        this.restoreMode = params.restoreMode;
+        this.threads = params.threads;
+        this.codecPolicy = resolveCodecPolicy(params.codec);
+        this.retention = new Retention(params.keepLast, params.keepHourly, params.keepDaily, params.keepWeekly,
+            params.repositoryKeep);
+        this.replicaTarget = resolveReplicaTarget(params);
+        this.replicaThreads = params.replicaThreads;
+        this.replicaPartSize = params.replicaPartSize;
+        this.fileCopier = new FileCopier(params.copyThreads);
+        this.fileDeleter = new FileDeleter(params.copyThreads);
+        this.deltaRestorer = new DeltaRestorer(params.copyThreads);
+        this.archiveName = params.archive;
+        this.databases = params.databases;
+        this.include = resolveIncludeFilter(params.include);
+        this.verifyBeforeRestore = params.verify;
     }
 
     @Override
-    public void backup() throws IOException {
+    public void backup() throws IOException, InterruptedException {
         if (!backupDir.exists()) backupDir.mkdir();
+        deleteStaleDirectories();
+
+        CompletableFuture<Boolean> pruning = startPruning();
+        replicator = replicaTarget == null ? null : new Replicator(replicaTarget, backupDir, replicaThreads, replicaPartSize);
+        try {
+            try {
+                if (BackupMode.SNAPSHOT.equals(backupMode)) {
+                    snapshotBackup();
+                } else if (BackupMode.ONLINE.equals(backupMode)) {
+                    onlineBackup();
+                } else {
+                    runWithServicesStopped(ALL_DATABASES, () -> {
+                        if (BackupMode.STREAM.equals(backupMode)) {
+                            streamBackup();
+                        } else if (BackupMode.INCREMENTAL.equals(backupMode)) {
+                            incrementalBackup();
+                        } else if (BackupMode.REPOSITORY.equals(backupMode)) {
+                            repositoryBackup();
+                        } else {
+                            copyBackup();
+                        }
+                    });
+                }
+            } finally {
+                finishPruning(pruning);
+            }
+            if (replicator != null) replicate();
+        } finally {
+            if (replicator != null) replicator.close();
+            replicator = null;
+        }
+        fileDeleter.await();
+    }
+
+    /**
+     * Waits for uploads started while backup was written, then uploads backups of catalog which replica target
+     * does not have yet, so backups not replicated by failed runs are replicated by the next one.
+     */
+    private void replicate() throws IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        List<File> archives = new ArrayList<>();
+        List<String> snapshots = new ArrayList<>();
+        for (Catalog.Entry entry : resolveCatalog().getEntries()) {
+            if (Catalog.ARCHIVE.equals(entry.kind)) {
+                archives.add(resolveCatalog().resolveFile(entry));
+            } else {
+                snapshots.add(entry.name);
+            }
+        }
+        replicator.sync(archives, snapshots);
+        Metrics.record("replicate", null, timeTracker, replicator.getBytes(), replicator.getFiles());
+        logFile(replicator.getFiles() + " files, " + replicator.getBytes() + " bytes replicated to " + replicator,
+            timeTracker);
+    }
+
+    /**
+     * Starts deleting backups not kept by retention policy in background while new backup is written. Backup being
+     * written is not in catalog yet and the latest cataloged one, which incremental backup builds on, is always kept.
+     * Returns future completed with {@code true} if repository snapshots were pruned.
+     */
+    private CompletableFuture<Boolean> startPruning() throws IOException {
+        if (!retention.isEnabled()) return CompletableFuture.completedFuture(false);
+        Catalog catalog = resolveCatalog();
+        String stack = Logger.getStack();
+        return CompletableFuture.supplyAsync(() -> {
+            Logger.setStack(stack);
+            try {
+                return prune(catalog);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                Logger.setStack(null);
+            }
+        });
+    }
+
+    private boolean prune(Catalog catalog) throws IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        List<Catalog.Entry> pruned = retention.resolvePruned(catalog.getEntries(), BackupMode.REPOSITORY.equals(backupMode),
+            entry -> resolveReferencedBackups(catalog, entry));
+        ChunkRepository repository = new ChunkRepository(backupDir, threads);
+        boolean snapshotsPruned = false;
+        long bytes = 0;
+        for (Catalog.Entry entry : pruned) {
+            if (Catalog.SNAPSHOT.equals(entry.kind)) {
+                repository.delete(entry.name);
+                snapshotsPruned = true;
+            } else {
+                Files.deleteIfExists(catalog.resolveFile(entry).toPath());
+            }
+            catalog.remove(entry.name);
+            bytes += entry.size;
+        }
+        Metrics.record("prune", null, timeTracker, bytes, pruned.size());
+        logFile(pruned.size() + " backups pruned by retention policy" + (pruned.isEmpty() ? "." : ": "
+            + pruned.stream().map(e -> e.name).collect(Collectors.joining(", "))), timeTracker);
+        return snapshotsPruned;
+    }
+
+    /**
+     * Returns backups holding files of incremental archive as listed in its manifest, only archive itself otherwise.
+     */
+    private static Set<String> resolveReferencedBackups(Catalog catalog, Catalog.Entry entry) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        referenced.add(entry.name);
+        if (!Catalog.ARCHIVE.equals(entry.kind)) return referenced;
+        Manifest manifest = Archiver.readManifest(catalog.resolveFile(entry));
+        if (manifest == null) return referenced;
+        for (Manifest.Entry file : manifest.getEntries()) {
+            if (file.archive != null) referenced.add(Archiver.resolveRootName(new File(file.archive)));
+        }
+        return referenced;
+    }
+
+    /**
+     * Waits for retention pruning, failed pruning is logged and does not fail backup. Chunks of pruned repository
+     * snapshots are deleted only now, as chunks written by backup are not referenced by any snapshot until it ends.
+     */
+    private void finishPruning(CompletableFuture<Boolean> pruning) throws IOException {
+        boolean snapshotsPruned;
+        try {
+            snapshotsPruned = pruning.join();
+        } catch (CompletionException e) {
+            logFile("Retention pruning failed: " + e.getCause().getMessage());
+            return;
+        }
+        if (snapshotsPruned) {
+            TimeTracker timeTracker = TimeTracker.start();
+            long deletedChunks = new ChunkRepository(backupDir, threads).collectGarbage();
+            logFile(deletedChunks + " repository chunks of pruned snapshots deleted.", timeTracker);
+        }
+    }
+
+    private void snapshotBackup() throws IOException, InterruptedException {
         workingDir = resolveCurrentBackupDirPath(backupDir);
 
         File eventStoreDatabaseBackupDir = resolveDatabaseBackupDirPath(eventStoreDatabaseDir);
-        TimeTracker esTimeTracker = TimeTracker.start();
-        copyFolder(eventStoreDatabaseDir, eventStoreDatabaseBackupDir, eventStoreDatabaseDir + File.separator + "log");
-        logFile("EventStore database directory " + eventStoreDatabaseDir + " copied to " + eventStoreDatabaseBackupDir, esTimeTracker);
+        File mongoDatabaseBackupDir = resolveDatabaseBackupDirPath(mongoDatabaseDir);
+        runWithServicesStopped(ALL_DATABASES, () -> runDatabaseStages("snapshot", () -> {
+            TimeTracker esTimeTracker = TimeTracker.start();
+            Set<File> sealedChunks = EventStoreLayout.resolveSealedChunks(eventStoreDatabaseDir);
+            FileCopier.Result result = fileCopier.copy(eventStoreDatabaseDir, eventStoreDatabaseBackupDir, resolveBackupFilter(), sealedChunks);
+            recordCopy(Metrics.EVENTSTORE, esTimeTracker, result);
+            logFile("EventStore database directory " + eventStoreDatabaseDir + " snapshot to " + eventStoreDatabaseBackupDir
+                + ", " + result.getLinked() + " sealed chunks linked.", esTimeTracker);
+        }, () -> {
+            TimeTracker mongoTimeTracker = TimeTracker.start();
+            recordCopy(Metrics.MONGO, mongoTimeTracker, fileCopier.copy(mongoDatabaseDir, mongoDatabaseBackupDir, resolveBackupFilter()));
+            logFile("Mongo database directory " + mongoDatabaseDir + " copied to " + mongoDatabaseBackupDir, mongoTimeTracker);
+        }, workingDir));
+
+        compressWorkingDir();
+
+        fileDeleter.deleteAsync(workingDir);
+    }
+
+    /**
+     * Compresses sealed EventStore chunks while services run. Services are stopped together, so both databases
+     * are backed up at the same point, but EventStore is down only while its active chunk, checkpoints and
+     * chunks changed since they were compressed are copied.
+     */
+    private void onlineBackup() throws IOException, InterruptedException {
+        String backupName = resolveCurrentBackupName();
+        File archive = new File(backupDir + File.separator + backupName + ".zip");
+        String eventStoreName = getDatabaseDirName(eventStoreDatabaseDir);
+        String mongoName = getDatabaseDirName(mongoDatabaseDir);
+
+        boolean completed = false;
+        LongConsumer replication = startReplication(archive);
+        try (OnlineArchive onlineArchive = new OnlineArchive(archive, backupName, threads, codecPolicy, replication)) {
+            TimeTracker onlineTimeTracker = TimeTracker.start();
+            FileFilter backupFilter = resolveBackupFilter();
+            Set<File> sealedChunks = EventStoreLayout.resolveSealedChunks(eventStoreDatabaseDir);
+            sealedChunks.removeIf(f -> !backupFilter.accept(f));
+            onlineArchive.addOnline(eventStoreName, eventStoreDatabaseDir, sealedChunks);
+            recordArchive("compress", Metrics.EVENTSTORE, onlineTimeTracker, onlineArchive.getResult());
+            logFile(sealedChunks.size() + " sealed EventStore chunks compressed to " + archive + " while services run.",
+                onlineTimeTracker);
+
+            workingDir = resolveCurrentBackupDirPath(backupDir);
+            Set<File> unchanged;
+            try {
+                stopServices(ALL_DATABASES);
+                unchanged = onlineArchive.resolveUnchanged();
+            } catch (IOException | InterruptedException | RuntimeException | Error e) {
+                startAfterFailure(e, () -> startServices(ALL_DATABASES));
+                throw e;
+            }
+            if (unchanged.size() < sealedChunks.size())
+                logFile((sealedChunks.size() - unchanged.size()) + " sealed EventStore chunks changed, they will be copied.");
+
+            File eventStoreDatabaseBackupDir = resolveDatabaseBackupDirPath(eventStoreDatabaseDir);
+            File mongoDatabaseBackupDir = resolveDatabaseBackupDirPath(mongoDatabaseDir);
+            runDatabaseStages("online snapshot", () -> runThenStart(() -> {
+                TimeTracker esTimeTracker = TimeTracker.start();
+                recordCopy(Metrics.EVENTSTORE, esTimeTracker, fileCopier.copy(eventStoreDatabaseDir,
+                    eventStoreDatabaseBackupDir, f -> !unchanged.contains(f) && backupFilter.accept(f)));
+                logFile("EventStore database directory " + eventStoreDatabaseDir + " active files copied to "
+                    + eventStoreDatabaseBackupDir, esTimeTracker);
+            }, serviceManager::startEventStoreService), () -> runThenStart(() -> {
+                TimeTracker mongoTimeTracker = TimeTracker.start();
+                recordCopy(Metrics.MONGO, mongoTimeTracker, fileCopier.copy(mongoDatabaseDir, mongoDatabaseBackupDir, resolveBackupFilter()));
+                logFile("Mongo database directory " + mongoDatabaseDir + " copied to " + mongoDatabaseBackupDir, mongoTimeTracker);
+            }, serviceManager::startMongoService), workingDir);
+
+            TimeTracker compressTimeTracker = TimeTracker.start();
+            long onlineFiles = onlineArchive.getResult().getFiles();
+            long onlineBytes = onlineArchive.getResult().getBytes();
+            onlineArchive.add(eventStoreName, eventStoreDatabaseBackupDir, null);
+            onlineArchive.add(mongoName, mongoDatabaseBackupDir, null);
+            Metrics.record("compress", null, compressTimeTracker, onlineArchive.getResult().getBytes() - onlineBytes,
+                onlineArchive.getResult().getFiles() - onlineFiles);
+            logFile("Working directory " + workingDir + " compressed to " + archive, compressTimeTracker);
+            completed = true;
+        } finally {
+            if (!completed) Files.deleteIfExists(archive.toPath());
+        }
+        addToCatalog(backupName, Catalog.ARCHIVE, archive.length(), null);
+        finishReplication(archive);
 
+        fileDeleter.deleteAsync(workingDir);
+    }
+
+    private void stopServices(Set<DatabaseType> databases) throws IOException, InterruptedException {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        if (databases.contains(DatabaseType.MONGO)) stages.put("Mongo", serviceManager::stopMongoService);
+        if (databases.contains(DatabaseType.EVENTSTORE)) stages.put("EventStore", serviceManager::stopEventStoreService);
+        StageRunner.run("stop services", stages);
+    }
+
+    /**
+     * Runs {@code stage} with services of given databases stopped. Services are started again even if stopping
+     * them or the stage failed, so failed run of daemon does not leave databases down, failure to start them
+     * is attached to the original failure.
+     */
+    private void runWithServicesStopped(Set<DatabaseType> databases, Stage stage) throws IOException, InterruptedException {
+        runThenStart(() -> {
+            stopServices(databases);
+            stage.run();
+        }, () -> startServices(databases));
+    }
+
+    /**
+     * Runs {@code stage}, then {@code start} of services even if the stage failed.
+     */
+    private static void runThenStart(Stage stage, Stage start) throws IOException, InterruptedException {
+        try {
+            stage.run();
+        } catch (IOException | InterruptedException | RuntimeException | Error e) {
+            startAfterFailure(e, start);
+            throw e;
+        }
+        start.run();
+    }
+
+    /**
+     * Starts services after {@code failure}, failure to start them is logged and attached to it.
+     */
+    private static void startAfterFailure(Throwable failure, Stage start) {
+        try {
+            start.run();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            logFile("Services could not be started after failure: " + e.getMessage());
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void startServices(Set<DatabaseType> databases) throws IOException, InterruptedException {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        if (databases.contains(DatabaseType.EVENTSTORE)) stages.put("EventStore", serviceManager::startEventStoreService);
+        if (databases.contains(DatabaseType.MONGO)) stages.put("Mongo", serviceManager::startMongoService);
+        StageRunner.run("start services", stages);
+    }
+
+    private void runDatabaseStages(String name, Stage eventStoreStage, Stage mongoStage, File sharedDir)
+        throws IOException, InterruptedException {
+        runDatabaseStages(name, ALL_DATABASES, eventStoreStage, mongoStage, sharedDir);
+    }
+
+    /**
+     * Runs EventStore and Mongo stages of given databases concurrently, each stage is limited by {@link VolumeLimiter}
+     * on volumes of its database directory and {@code sharedDir} used by both stages.
+     */
+    private void runDatabaseStages(String name, Set<DatabaseType> databases, Stage eventStoreStage, Stage mongoStage,
+                                   File sharedDir) throws IOException, InterruptedException {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        if (databases.contains(DatabaseType.EVENTSTORE))
+            stages.put("EventStore", () -> VolumeLimiter.run(eventStoreStage, eventStoreDatabaseDir, sharedDir));
+        if (databases.contains(DatabaseType.MONGO))
+            stages.put("Mongo", () -> VolumeLimiter.run(mongoStage, mongoDatabaseDir, sharedDir));
+        StageRunner.run(name, stages);
+    }
+
+    private void copyBackup() throws IOException, InterruptedException {
+        workingDir = resolveCurrentBackupDirPath(backupDir);
+
+        File eventStoreDatabaseBackupDir = resolveDatabaseBackupDirPath(eventStoreDatabaseDir);
         File mongoDatabaseBackupDir = resolveDatabaseBackupDirPath(mongoDatabaseDir);
-        TimeTracker mongoTimeTracker = TimeTracker.start();
-        copyFolder(mongoDatabaseDir, mongoDatabaseBackupDir);
-        logFile("Mongo database directory " + mongoDatabaseDir + " copied to " + mongoDatabaseBackupDir, mongoTimeTracker);
+        runDatabaseStages("copy", () -> {
+            TimeTracker esTimeTracker = TimeTracker.start();
+            recordCopy(Metrics.EVENTSTORE, esTimeTracker,
+                fileCopier.copy(eventStoreDatabaseDir, eventStoreDatabaseBackupDir, resolveBackupFilter()));
+            logFile("EventStore database directory " + eventStoreDatabaseDir + " copied to " + eventStoreDatabaseBackupDir, esTimeTracker);
+        }, () -> {
+            TimeTracker mongoTimeTracker = TimeTracker.start();
+            recordCopy(Metrics.MONGO, mongoTimeTracker, fileCopier.copy(mongoDatabaseDir, mongoDatabaseBackupDir, resolveBackupFilter()));
+            logFile("Mongo database directory " + mongoDatabaseDir + " copied to " + mongoDatabaseBackupDir, mongoTimeTracker);
+        }, workingDir);
+
+        compressWorkingDir();
+
+        fileDeleter.deleteAsync(workingDir);
+    }
+
+    /**
+     * Compresses working directory, limited by {@link VolumeLimiter} like database stages, so archives of stacks
+     * backed up concurrently do not all write the same volume at once.
+     */
+    private void compressWorkingDir() throws IOException, InterruptedException {
+        VolumeLimiter.run(() -> {
+            TimeTracker compressTimeTracker = TimeTracker.start();
+            File archive = new File(workingDir + ".zip");
+            LongConsumer replication = startReplication(archive);
+            recordArchive("compress", null, compressTimeTracker, Archiver.compress(workingDir, threads, codecPolicy, replication));
+            logFile("Working directory " + workingDir + " compressed.", compressTimeTracker);
+            addToCatalog(workingDir.getName(), Catalog.ARCHIVE, archive.length(), null);
+            finishReplication(archive);
+        }, workingDir);
+    }
+
+    private void streamBackup() throws IOException, InterruptedException {
+        String backupName = resolveCurrentBackupName();
+        File archive = new File(backupDir + File.separator + backupName + ".zip");
+
+        VolumeLimiter.run(() -> {
+            TimeTracker compressTimeTracker = TimeTracker.start();
+            LongConsumer replication = startReplication(archive);
+            Archiver.Result result = Archiver.compress(archive, backupName, resolveDatabaseDirs(), resolveBackupFilter(),
+                threads, codecPolicy, replication);
+            recordArchive("compress", null, compressTimeTracker, result);
+            logFile("EventStore database directory " + eventStoreDatabaseDir + " and Mongo database directory "
+                + mongoDatabaseDir + " compressed to " + archive, compressTimeTracker);
+            addToCatalog(backupName, Catalog.ARCHIVE, archive.length(), null);
+            finishReplication(archive);
+        }, eventStoreDatabaseDir, mongoDatabaseDir, backupDir);
+    }
+
+    private void incrementalBackup() throws IOException, InterruptedException {
+        TimeTracker findTimeTracker = TimeTracker.start();
+        File previousArchive = resolveLatestBackupArchive();
+        Manifest previous = previousArchive == null ? null : Archiver.readManifest(previousArchive);
+        if (previous == null) {
+            logFile("No previous backup manifest found, all files will be compressed.", findTimeTracker);
+        } else {
+            logFile("Found previous backup manifest in " + previousArchive, findTimeTracker);
+        }
+
+        String backupName = resolveCurrentBackupName();
+        File archive = new File(backupDir + File.separator + backupName + ".zip");
+
+        VolumeLimiter.run(() -> {
+            TimeTracker compressTimeTracker = TimeTracker.start();
+            LongConsumer replication = startReplication(archive);
+            Manifest manifest = Archiver.compressIncremental(archive, backupName, resolveDatabaseDirs(), resolveBackupFilter(),
+                previous, previous == null ? null : previousArchive.getName(), threads, codecPolicy, replication);
+            long changed = manifest.getEntries().stream().filter(e -> archive.getName().equals(e.archive)).count();
+            long changedBytes = manifest.getEntries().stream().filter(e -> archive.getName().equals(e.archive))
+                .mapToLong(e -> e.size).sum();
+            long files = manifest.getEntries().stream().filter(e -> !e.directory).count();
+            Metrics.record("compress", null, compressTimeTracker, changedBytes, changed);
+            logFile(changed + " of " + files + " changed files compressed to " + archive, compressTimeTracker);
+            addToCatalog(backupName, Catalog.ARCHIVE, archive.length(),
+                previous == null ? null : Archiver.resolveRootName(previousArchive));
+            finishReplication(archive);
+        }, eventStoreDatabaseDir, mongoDatabaseDir, backupDir);
+    }
+
+    private void repositoryBackup() throws IOException, InterruptedException {
+        ChunkRepository repository = new ChunkRepository(backupDir, threads);
+        String backupName = resolveCurrentBackupName();
+
+        VolumeLimiter.run(() -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            long chunks = repository.backup(backupName, resolveDatabaseDirs(), resolveBackupFilter(),
+                replicator == null ? null : replicator::replicateChunk);
+            Manifest snapshot = repository.readIndex(backupName);
+            long size = snapshot.getEntries().stream().mapToLong(e -> e.size).sum();
+            Metrics.record("compress", null, timeTracker, size, snapshot.getEntries().stream().filter(e -> !e.directory).count());
+            addToCatalog(backupName, Catalog.SNAPSHOT, size, null);
+            logFile("EventStore database directory " + eventStoreDatabaseDir + " and Mongo database directory "
+                + mongoDatabaseDir + " stored to repository snapshot " + backupName + ", " + chunks + " new chunks.", timeTracker);
+        }, eventStoreDatabaseDir, mongoDatabaseDir, backupDir);
+    }
 
-        TimeTracker compressTimeTracker = TimeTracker.start();
-        Archiver.compress(workingDir);
-        logFile("Working directory " + workingDir + " compressed.", compressTimeTracker);
+    @Override
+    public void restoreLatest() throws IOException, InterruptedException {
+        deleteStaleDirectories();
+        BackupSource source = resolveBackupSource();
+        if (verifyBeforeRestore == null ? writesDatabaseDirectories(source) : verifyBeforeRestore) verify(source);
+        if (include != null) {
+            runWithServicesStopped(databases, () -> extract(source, eventStoreDatabaseDir, mongoDatabaseDir));
+        } else if (RestoreMode.STAGED.equals(restoreMode)) {
+            stagedRestore(source);
+        } else {
+            runWithServicesStopped(databases, () -> {
+                if (RestoreMode.COPY.equals(restoreMode) && source.archive != null) {
+                    copyRestore(source.archive);
+                } else if (RestoreMode.DELTA.equals(restoreMode) && source.deltaExtraction != null) {
+                    deltaRestore(source);
+                } else {
+                    streamRestore(source);
+                }
+            });
+        }
+        fileDeleter.await();
+    }
+
+    /**
+     * Logs backups found in backup directory and directories and files of selected backup. Only archive central
+     * directory, manifest or repository snapshot is read, services are not touched.
+     */
+    @Override
+    public void list() throws IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        for (Catalog.Entry entry : resolveCatalog().getEntries()) {
+            logFile((Catalog.ARCHIVE.equals(entry.kind) ? "Backup archive " + entry.name + ".zip" : "Repository snapshot " + entry.name)
+                + ", created " + entry.created + ", " + entry.size + " bytes, databases " + entry.databases + ", " + entry.status
+                + (entry.parent == null ? "" : ", parent " + entry.parent));
+        }
 
-        TimeTracker deleteTimeTracker = TimeTracker.start();
-        delete(workingDir);
-        logFile("Working directory " + workingDir + " deleted.", deleteTimeTracker);
+        BackupSource source = resolveBackupSource();
+        Manifest index = source.indexReader.read();
+        Set<String> databaseDirNames = resolveDatabaseDirs(databases).keySet();
+        long files = 0;
+        long size = 0;
+        for (Manifest.Entry entry : index.getEntries()) {
+            if (!databaseDirNames.contains(entry.path.split("/", 2)[0])) continue;
+            if (include != null && !include.test(entry.path)) continue;
+            if (entry.directory) {
+                logFile("D " + entry.path);
+            } else {
+                logFile(String.join(" ", "F", entry.path, String.valueOf(entry.size),
+                    entry.hash == null ? "-" : entry.hash, entry.archive == null ? "-" : entry.archive,
+                    entry.codec == null ? "-" : entry.codec));
+                files++;
+                size += entry.size;
+            }
+        }
+        logFile(source.description + ": " + files + " files, " + size + " bytes.", timeTracker);
     }
 
+    /**
+     * Re-reads selected backup on worker pool checking every file against checksums stored while backup was
+     * written, services are not touched. Throws if any file is corrupt.
+     */
     @Override
-    public void restoreLatest() throws IOException {
+    public void verify() throws IOException {
+        verify(resolveBackupSource());
+    }
+
+    private void verify(BackupSource source) throws IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        List<String> corrupt = source.verification.verify();
+        resolveCatalog().setStatus(source.name, corrupt.isEmpty() ? Catalog.VERIFIED : Catalog.CORRUPT);
+        for (String entry : corrupt) {
+            logFile("Corrupt: " + entry);
+        }
+        if (!corrupt.isEmpty())
+            throw new IOException(source.description + " is corrupt, " + corrupt.size() + " corrupt entries found.");
+        logFile(source.description + " verified.", timeTracker);
+    }
+
+    /**
+     * Resolves backup chosen by archive name, latest backup archive or repository snapshot by default.
+     */
+    private BackupSource resolveBackupSource() throws IOException {
         TimeTracker findTimeTracker = TimeTracker.start();
-        File archive = resolveLatestBackupArchive();
+        ChunkRepository repository = new ChunkRepository(backupDir, threads);
+        if (archiveName != null) {
+            String name = archiveName.endsWith(".zip") ? Archiver.resolveRootName(new File(archiveName)) : archiveName;
+            File archive = new File(backupDir, name + ".zip");
+            if (archive.exists()) {
+                logFile("Found backup archive: " + archive, findTimeTracker);
+                return resolveArchiveSource(archive);
+            }
+            if (repository.listSnapshots().contains(name)) {
+                logFile("Found repository snapshot: " + name, findTimeTracker);
+                return resolveSnapshotSource(repository, name);
+            }
+            Catalog.Entry fetched = replicaTarget == null ? null : fetchReplica(name, null);
+            if (fetched == null) throw new RuntimeException("Backup " + archiveName + " not found.");
+            if (Catalog.SNAPSHOT.equals(fetched.kind)) return resolveSnapshotSource(repository, name);
+            return resolveArchiveSource(resolveCatalog().resolveFile(fetched));
+        }
+
+        Catalog.Entry latest = resolveCatalog().getLatest(null);
+        if (replicaTarget != null) {
+            Catalog.Entry fetched = fetchReplica(null, latest);
+            if (fetched != null) latest = fetched;
+        }
+        if (latest == null) throw new RuntimeException("Backup archive not found.");
+        if (Catalog.SNAPSHOT.equals(latest.kind)) {
+            logFile("Found latest repository snapshot: " + latest.name, findTimeTracker);
+            return resolveSnapshotSource(repository, latest.name);
+        }
+        File archive = resolveCatalog().resolveFile(latest);
         logFile("Found latest buckup archive: " + archive, findTimeTracker);
+        return resolveArchiveSource(archive);
+    }
+
+    /**
+     * Fetches backup {@code name} from replica target to backup directory. If {@code name} is {@code null},
+     * fetches the latest replicated backup when backup directory does not have it, i.e. it is newer than
+     * {@code latest} local backup. Returns catalog entry of fetched backup, {@code null} if nothing was fetched.
+     */
+    private Catalog.Entry fetchReplica(String name, Catalog.Entry latest) throws IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        try (Replicator fetcher = new Replicator(replicaTarget, backupDir, replicaThreads, replicaPartSize)) {
+            List<String> archives = fetcher.listArchives();
+            List<String> snapshots = fetcher.listSnapshots();
+            if (name == null) {
+                List<String> names = new ArrayList<>(archives);
+                names.addAll(snapshots);
+                Comparator<String> order = Comparator.comparing((String n) -> Catalog.resolveCreated(n, 0))
+                    .thenComparing(n -> n);
+                name = names.stream().max(order).orElse(null);
+                if (name == null || (latest != null && order.compare(name, latest.name) <= 0)) return null;
+                logFile("Latest backup " + name + " is missing in backup directory, it will be fetched from replica " + fetcher);
+            }
+
+            Catalog.Entry fetched;
+            if (archives.contains(name)) {
+                List<File> files = fetcher.fetchArchive(name);
+                for (int i = files.size() - 1; i > 0; i--) {
+                    resolveCatalog().addFile(Catalog.ARCHIVE, Archiver.resolveRootName(files.get(i)));
+                }
+                fetched = resolveCatalog().addFile(Catalog.ARCHIVE, name);
+            } else if (snapshots.contains(name)) {
+                fetcher.fetchSnapshot(name);
+                fetched = resolveCatalog().addFile(Catalog.SNAPSHOT, name);
+            } else {
+                return null;
+            }
+            Metrics.record("fetch", null, timeTracker, fetcher.getBytes(), fetcher.getFiles());
+            logFile("Backup " + name + " fetched from replica " + fetcher + ", " + fetcher.getFiles() + " files, "
+                + fetcher.getBytes() + " bytes.", timeTracker);
+            return fetched;
+        }
+    }
 
-        if (archive == null) throw new RuntimeException("Backup archive not found.");
+    private BackupSource resolveSnapshotSource(ChunkRepository repository, String snapshot) {
+        if (RestoreMode.DELTA.equals(restoreMode))
+            logFile("Delta restore is not supported for repository snapshots, database directories will be rewritten.");
+        return new BackupSource(snapshot, "Repository snapshot " + snapshot, null,
+            (targets, include) -> repository.restore(snapshot, targets, include), null,
+            () -> repository.readIndex(snapshot), () -> repository.verify(snapshot));
+    }
 
+    private BackupSource resolveArchiveSource(File archive) throws IOException {
+        Manifest manifest = Archiver.readManifest(archive);
+        if (manifest != null && !manifest.isSelfContained(archive.getName())) {
+            logFile("Backup archive " + archive + " is incremental, files will be restored from backup chain.");
+            return new BackupSource(Archiver.resolveRootName(archive), "Backup manifest of " + archive, null,
+                (targets, include) -> Archiver.extract(manifest, backupDir, targets, include),
+                targets -> deltaRestorer.restore(manifest, backupDir, targets), () -> manifest,
+                () -> verifyArchives(manifest));
+        }
+        return new BackupSource(Archiver.resolveRootName(archive), "Backup archive " + archive, archive,
+            (targets, include) -> Archiver.extract(archive, targets, include),
+            targets -> deltaRestorer.restore(archive, targets), () -> Archiver.readIndex(archive),
+            () -> new ArchiveVerifier(threads).verify(archive));
+    }
+
+    /**
+     * Verifies every archive of backup chain referenced by manifest.
+     */
+    private List<String> verifyArchives(Manifest manifest) throws IOException {
+        Set<String> archives = manifest.getEntries().stream().filter(e -> !e.directory).map(e -> e.archive)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+        List<String> corrupt = new ArrayList<>();
+        for (String archive : archives) {
+            File archiveFile = new File(backupDir, archive);
+            if (!archiveFile.exists()) {
+                corrupt.add(archive + ": backup archive referenced by manifest not found.");
+                continue;
+            }
+            corrupt.addAll(new ArchiveVerifier(threads).verify(archiveFile));
+        }
+        return corrupt;
+    }
+
+    private void copyRestore(File archive) throws IOException, InterruptedException {
         workingDir = new File(archive.toString().substring(0, archive.toString().indexOf(".")));
         logFile("Working directory " + workingDir);
-        if (workingDir.exists()) delete(workingDir);
+        fileDeleter.deleteAsync(workingDir);
 
         TimeTracker timeTracker = TimeTracker.start();
-        Archiver.extract(archive, backupDir);
+        recordArchive("extract", null, timeTracker, Archiver.extract(archive, backupDir));
         logFile("Backup archive " + archive + " extracted.", timeTracker);
 
-        delete(mongoDatabaseDir);
-        logFile("Mongo database directory " + mongoDatabaseDir + " deleted.");
-        delete(eventStoreDatabaseDir);
-        logFile("EventStore database directory " + eventStoreDatabaseDir + " deleted.");
-
-        mongoDatabaseDir.mkdir();
-        eventStoreDatabaseDir.mkdir();
+        deleteDatabaseDirectories();
 
         File eventStoreDatabaseBackupDir = resolveDatabaseBackupDirPath(eventStoreDatabaseDir);
-        timeTracker = TimeTracker.start();
-        FileUtils.copyDirectory(eventStoreDatabaseBackupDir, eventStoreDatabaseDir);
-        logFile("EventStore database backup directory " + eventStoreDatabaseBackupDir + " restored to " + eventStoreDatabaseDir, timeTracker);
-
         File mongoDatabaseBackupDir = resolveDatabaseBackupDirPath(mongoDatabaseDir);
-        timeTracker = TimeTracker.start();
-        FileUtils.copyDirectory(mongoDatabaseBackupDir, mongoDatabaseDir);
-        logFile("Mongo database backup directory " + mongoDatabaseBackupDir + " restored to " + mongoDatabaseDir, timeTracker);
+        runDatabaseStages("restore", databases, () -> {
+            TimeTracker esTimeTracker = TimeTracker.start();
+            recordCopy("restore", Metrics.EVENTSTORE, esTimeTracker,
+                fileCopier.copy(eventStoreDatabaseBackupDir, eventStoreDatabaseDir, null));
+            logFile("EventStore database backup directory " + eventStoreDatabaseBackupDir + " restored to " + eventStoreDatabaseDir, esTimeTracker);
+        }, () -> {
+            TimeTracker mongoTimeTracker = TimeTracker.start();
+            recordCopy("restore", Metrics.MONGO, mongoTimeTracker, fileCopier.copy(mongoDatabaseBackupDir, mongoDatabaseDir, null));
+            logFile("Mongo database backup directory " + mongoDatabaseBackupDir + " restored to " + mongoDatabaseDir, mongoTimeTracker);
+        }, workingDir);
+
+        fileDeleter.deleteAsync(workingDir);
+    }
+
+    /**
+     * Tells if restore of {@code source} extracts files directly to database directories, so corrupt file would be
+     * found only after database directories are partly overwritten. Copy and staged restores extract backup to
+     * other directories first.
+     */
+    private boolean writesDatabaseDirectories(BackupSource source) {
+        if (include != null) return true;
+        if (RestoreMode.STAGED.equals(restoreMode)) return false;
+        return !(RestoreMode.COPY.equals(restoreMode) && source.archive != null);
+    }
+
+    private void streamRestore(BackupSource source) throws IOException, InterruptedException {
+        deleteDatabaseDirectories();
+        extract(source, eventStoreDatabaseDir, mongoDatabaseDir);
+    }
+
+    /**
+     * Restores backup over database directories, only files which differ from backup are written.
+     */
+    private void deltaRestore(BackupSource source) throws IOException, InterruptedException {
+        runDatabaseStages("delta restore", databases, () -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            DeltaRestorer.Result result = source.deltaExtraction.restore(
+                Collections.singletonMap(getDatabaseDirName(eventStoreDatabaseDir), eventStoreDatabaseDir));
+            Metrics.record("restore", Metrics.EVENTSTORE, timeTracker, result.getBytes(), result.getWritten());
+            logDelta(source, eventStoreDatabaseDir, result, timeTracker);
+        }, () -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            DeltaRestorer.Result result = source.deltaExtraction.restore(
+                Collections.singletonMap(getDatabaseDirName(mongoDatabaseDir), mongoDatabaseDir));
+            Metrics.record("restore", Metrics.MONGO, timeTracker, result.getBytes(), result.getWritten());
+            logDelta(source, mongoDatabaseDir, result, timeTracker);
+        }, backupDir);
+    }
+
+    private static void logDelta(BackupSource source, File databaseDir, DeltaRestorer.Result result, TimeTracker timeTracker) {
+        logFile(source.description + " restored to " + databaseDir + ": " + result.getWritten() + " files written ("
+            + result.getBytes() + " bytes), " + result.getUnchanged() + " unchanged, " + result.getDeleted() + " deleted.", timeTracker);
+    }
+
+    /**
+     * Extracts backup to staging directories next to database directories while services are running,
+     * then stops services only to swap staging and database directories with renames.
+     */
+    private void stagedRestore(BackupSource source) throws IOException, InterruptedException {
+        File eventStoreStagingDir = resolveStagingDir(eventStoreDatabaseDir);
+        File mongoStagingDir = resolveStagingDir(mongoDatabaseDir);
+        fileDeleter.delete(eventStoreStagingDir);
+        fileDeleter.delete(mongoStagingDir);
+        if (databases.contains(DatabaseType.EVENTSTORE)) eventStoreStagingDir.mkdir();
+        if (databases.contains(DatabaseType.MONGO)) mongoStagingDir.mkdir();
+
+        extract(source, eventStoreStagingDir, mongoStagingDir);
+
+        runWithServicesStopped(databases, () -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            if (databases.contains(DatabaseType.EVENTSTORE)) swap(eventStoreDatabaseDir, eventStoreStagingDir);
+            if (databases.contains(DatabaseType.MONGO)) swap(mongoDatabaseDir, mongoStagingDir);
+            Metrics.record("restore", null, timeTracker, 0, 0);
+            logFile("Staging directories swapped with database directories " + resolveDatabaseDirs(databases).values(), timeTracker);
+        });
+    }
+
+    private void swap(File databaseDir, File stagingDir) throws IOException {
+        fileDeleter.deleteAsync(databaseDir);
+        Files.move(stagingDir.toPath(), databaseDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void extract(BackupSource source, File eventStoreTargetDir, File mongoTargetDir) throws IOException, InterruptedException {
+        runDatabaseStages("extract", databases, () -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            recordArchive("extract", Metrics.EVENTSTORE, timeTracker, source.extraction.extract(
+                Collections.singletonMap(getDatabaseDirName(eventStoreDatabaseDir), eventStoreTargetDir), include));
+            logFile(source.description + " extracted to " + eventStoreTargetDir, timeTracker);
+        }, () -> {
+            TimeTracker timeTracker = TimeTracker.start();
+            recordArchive("extract", Metrics.MONGO, timeTracker, source.extraction.extract(
+                Collections.singletonMap(getDatabaseDirName(mongoDatabaseDir), mongoTargetDir), include));
+            logFile(source.description + " extracted to " + mongoTargetDir, timeTracker);
+        }, backupDir);
+    }
+
+    private static File resolveStagingDir(File databaseDir) {
+        return new File(databaseDir.getAbsoluteFile().getParentFile(), databaseDir.getName() + STAGING_DIR_SUFFIX);
+    }
+
+    private Map<String, File> resolveDatabaseDirs() {
+        return resolveDatabaseDirs(ALL_DATABASES);
+    }
+
+    private Map<String, File> resolveDatabaseDirs(Set<DatabaseType> databases) {
+        Map<String, File> databaseDirs = new LinkedHashMap<>();
+        if (databases.contains(DatabaseType.EVENTSTORE))
+            databaseDirs.put(getDatabaseDirName(eventStoreDatabaseDir), eventStoreDatabaseDir);
+        if (databases.contains(DatabaseType.MONGO))
+            databaseDirs.put(getDatabaseDirName(mongoDatabaseDir), mongoDatabaseDir);
+        return databaseDirs;
+    }
+
+    private FileFilter resolveBackupFilter() {
+        return f -> !isSkipped(f, eventStoreDatabaseDir, eventStoreSkip) && !isSkipped(f, mongoDatabaseDir, mongoSkip);
+    }
+
+    private static boolean isSkipped(File file, File databaseDir, List<PathMatcher> skip) {
+        Path path = file.toPath();
+        Path databasePath = databaseDir.toPath();
+        if (skip.isEmpty() || !path.startsWith(databasePath) || path.equals(databasePath)) return false;
+        Path relative = databasePath.relativize(path);
+        return skip.stream().anyMatch(matcher -> matcher.matches(relative));
+    }
 
-        timeTracker = TimeTracker.start();
-        delete(workingDir);
-        logFile("Working directory " + workingDir + " deleted.", timeTracker);
+    /**
+     * Deletes in background database and working directories renamed for deletion by previous run which was
+     * killed before they were deleted.
+     */
+    private void deleteStaleDirectories() {
+        fileDeleter.deleteStale(eventStoreDatabaseDir);
+        fileDeleter.deleteStale(mongoDatabaseDir);
+        fileDeleter.deleteStaleIn(backupDir);
     }
 
-    private File resolveLatestBackupArchive() {
-        List<File> files = Arrays.asList(backupDir.listFiles()).stream()
-            .filter(f -> f.toString().endsWith(".zip"))
-            .sorted(Comparator.comparing(f -> f.getName())).collect(Collectors.toList());
-        if (files.size() == 0) return null;
-        return files.get(files.size() - 1);
+    private void deleteDatabaseDirectories() throws IOException, InterruptedException {
+        runDatabaseStages("delete", databases, () -> {
+            fileDeleter.deleteAsync(eventStoreDatabaseDir);
+            logFile("EventStore database directory " + eventStoreDatabaseDir + " moved out for deletion.");
+            eventStoreDatabaseDir.mkdir();
+        }, () -> {
+            fileDeleter.deleteAsync(mongoDatabaseDir);
+            logFile("Mongo database directory " + mongoDatabaseDir + " moved out for deletion.");
+            mongoDatabaseDir.mkdir();
+        }, null);
+    }
+
+    private File resolveLatestBackupArchive() throws IOException {
+        Catalog.Entry latest = resolveCatalog().getLatest(Catalog.ARCHIVE);
+        return latest == null ? null : resolveCatalog().resolveFile(latest);
+    }
+
+    /**
+     * Starts replicating archive, returns listener to pass to archive writer, {@code null} without replica.
+     */
+    private LongConsumer startReplication(File archive) {
+        return replicator == null ? null : replicator.track(archive);
+    }
+
+    private void finishReplication(File archive) {
+        if (replicator != null) replicator.finish(archive);
+    }
+
+    private static ReplicaTarget resolveReplicaTarget(Params params) {
+        if (params.replica == null) return null;
+        if (params.replica.startsWith(S3ReplicaTarget.SCHEME))
+            return S3ReplicaTarget.of(params.replica, params.replicaEndpoint, params.replicaRegion);
+        return new DirectoryReplicaTarget(new File(params.replica));
+    }
+
+    private Catalog resolveCatalog() throws IOException {
+        if (catalog == null) catalog = Catalog.open(backupDir);
+        return catalog;
+    }
+
+    private void addToCatalog(String name, String kind, long size, String parent) throws IOException {
+        resolveCatalog().add(new Catalog.Entry(name, kind, Catalog.resolveCreated(name, System.currentTimeMillis()), size,
+            String.join(",", resolveDatabaseDirs().keySet()), Catalog.UNVERIFIED, parent));
     }
 
     private File resolveDatabaseBackupDirPath(File value) {
@@ -117,81 +915,102 @@ public class WinBackupManager implements BackupManager {
         return path.substring(path.lastIndexOf(File.separator));
     }
 
+    private static String getDatabaseDirName(File value) {
+        return getDeepestDirName(value).substring(File.separator.length());
+    }
+
+    private static String resolveCurrentBackupName() {
+        return BACKUP_DIR_NAME_PREFIX + now().format(DATE_FORMATTER);
+    }
+
     private static File resolveCurrentBackupDirPath(File backupDir) {
-        File dir = new File(backupDir + File.separator + BACKUP_DIR_NAME_PREFIX + now().format(DATE_FORMATTER));
+        File dir = new File(backupDir + File.separator + resolveCurrentBackupName());
         dir.mkdir();
         logFile("Working directory " + dir + " created.");
         return dir;
     }
 
-    private static void copyFolder(File src, File dest) throws IOException {
-        copyFolder(src, dest, null);
+    private static void logFile(String message) {
+        log("/ FILE  / - " + message);
     }
 
-    private static void copyFolder(File src, File dest, String skipDirectory) throws IOException {
-
-        if (src.isDirectory()) {
-            if (skipDirectory != null && src.toString().startsWith(skipDirectory)) return;
-
-            if (!dest.exists()) {
-                dest.mkdir();
-                //System.out.println("Directory copied from " + src + "  to " + dest);
-            }
+    private static void logFile(String message, TimeTracker timeTracker) {
+        log("/ FILE  / - " + message, timeTracker);
+    }
 
-            String files[] = src.list();
-            for (String file : files) {
-                File srcFile = new File(src, file);
-                File destFile = new File(dest, file);
+    private static void recordCopy(String database, TimeTracker timeTracker, FileCopier.Result result) {
+        recordCopy("copy", database, timeTracker, result);
+    }
 
-                copyFolder(srcFile, destFile, skipDirectory);
-            }
+    private static void recordCopy(String stage, String database, TimeTracker timeTracker, FileCopier.Result result) {
+        Metrics.record(stage, database, timeTracker, result.getBytes(), result.getFiles());
+    }
 
-        } else {
-            InputStream in = new FileInputStream(src);
-            OutputStream out = new FileOutputStream(dest);
+    private static void recordArchive(String stage, String database, TimeTracker timeTracker, Archiver.Result result) {
+        Metrics.record(stage, database, timeTracker, result.getBytes(), result.getFiles());
+    }
 
-            byte[] buffer = new byte[1024];
+    private static CodecPolicy resolveCodecPolicy(CodecType codec) {
+        if (CodecType.STORE.equals(codec)) return CodecPolicy.of(Codec.STORE);
+        if (CodecType.FAST.equals(codec)) return CodecPolicy.of(Codec.FAST);
+        if (CodecType.HIGH.equals(codec)) return CodecPolicy.of(Codec.HIGH);
+        if (CodecType.AUTO.equals(codec)) return new AdaptiveCodecPolicy();
+        return CodecPolicy.of(Codec.DEFAULT);
+    }
 
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
-            }
+    private static List<PathMatcher> resolveSkipMatchers(List<String> skip) {
+        return skip.stream().map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+            .collect(Collectors.toList());
+    }
 
-            in.close();
-            out.close();
-            //System.out.println("File copied from " + src + " to " + dest);
-        }
+    private static Predicate<String> resolveIncludeFilter(String include) {
+        if (include == null) return null;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + include);
+        return path -> {
+            String[] parts = path.split("/", 2);
+            return parts.length > 1 && matcher.matches(Paths.get(parts[1]));
+        };
     }
 
-    private static void delete(File file) {
-        if (file.isDirectory()) {
-            if (file.list().length == 0) {
-                file.delete();
-                //System.out.println("Directory is deleted : " + file.getAbsolutePath());
-            } else {
-                String files[] = file.list();
-                for (String temp : files) {
-                    File fileDelete = new File(file, temp);
-                    delete(fileDelete);
-                }
+    private interface Extraction {
+        Archiver.Result extract(Map<String, File> targets, Predicate<String> include) throws IOException;
+    }
 
-                if (file.list().length == 0) {
-                    file.delete();
-                    //System.out.println("Directory is deleted : " + file.getAbsolutePath());
-                }
-            }
+    private interface DeltaExtraction {
+        DeltaRestorer.Result restore(Map<String, File> targets) throws IOException;
+    }
 
-        } else {
-            file.delete();
-            //System.out.println("File is deleted : " + file.getAbsolutePath());
-        }
+    private interface IndexReader {
+        Manifest read() throws IOException;
     }
 
-    private static void logFile(String message) {
-        log("/ FILE  / - " + message);
+    private interface Verification {
+        List<String> verify() throws IOException;
     }
 
-    private static void logFile(String message, TimeTracker timeTracker) {
-        log("/ FILE  / - " + message, timeTracker);
+    /**
+     * Backup to restore: archive, incremental backup chain or repository snapshot. Archive is set only for
+     * self contained archives, delta extraction only for archive backups.
+     */
+    private static class BackupSource {
+
+        private final String name;
+        private final String description;
+        private final File archive;
+        private final Extraction extraction;
+        private final DeltaExtraction deltaExtraction;
+        private final IndexReader indexReader;
+        private final Verification verification;
+
+        private BackupSource(String name, String description, File archive, Extraction extraction,
+                             DeltaExtraction deltaExtraction, IndexReader indexReader, Verification verification) {
+            this.name = name;
+            this.description = description;
+            this.archive = archive;
+            this.extraction = extraction;
+            this.deltaExtraction = deltaExtraction;
+            this.indexReader = indexReader;
+            this.verification = verification;
+        }
     }
 }
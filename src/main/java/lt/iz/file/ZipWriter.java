@@ -0,0 +1,253 @@
+package lt.iz.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.ZipEntry;
+
+/**
+ * Minimal ZIP/ZIP64 writer accepting already compressed entry data. Local headers are patched
+ * with crc and sizes when entry is finished, so archives are readable by {@link java.util.zip.ZipFile},
+ * {@link java.util.zip.ZipInputStream} and other standard tools. Archive content before the current entry is final,
+ * optional {@code written} listener is told how far it reaches when every entry is finished.
+ */
+class ZipWriter implements Closeable {
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final long ZIP64_LOCAL_THRESHOLD = 0xF0000000L;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final LongConsumer finished;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private long written;
+    private Entry current;
+
+    ZipWriter(File file) throws IOException {
+        this(file, null);
+    }
+
+    ZipWriter(File file, LongConsumer finished) throws IOException {
+        this.finished = finished;
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+    }
+
+    void putDirectory(String name, long time) throws IOException {
+        beginEntry(name.endsWith("/") ? name : name + "/", time, ZipEntry.STORED, 0, 0);
+        endEntry(0, 0);
+    }
+
+    /**
+     * Starts new entry, {@code flags} are general purpose bits besides UTF-8 flag, {@code sizeHint} is used
+     * to decide if local header needs ZIP64 extra field.
+     */
+    void beginEntry(String name, long time, int method, int flags, long sizeHint) throws IOException {
+        if (current != null) throw new IllegalStateException("Entry " + current.name + " is not finished.");
+        current = new Entry(name, time, method, FLAG_UTF8 | flags, written, sizeHint >= ZIP64_LOCAL_THRESHOLD);
+
+        ByteBuffer header = littleEndian(30 + current.nameBytes.length + (current.zip64Local ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) (current.zip64Local ? VERSION_ZIP64 : VERSION));
+        header.putShort((short) current.flags);
+        header.putShort((short) method);
+        header.putInt((int) dosTime(time));
+        header.putInt(0);
+        header.putInt(current.zip64Local ? (int) ZIP64_MAGIC : 0);
+        header.putInt(current.zip64Local ? (int) ZIP64_MAGIC : 0);
+        header.putShort((short) current.nameBytes.length);
+        header.putShort((short) (current.zip64Local ? 20 : 0));
+        header.put(current.nameBytes);
+        if (current.zip64Local) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(0);
+            header.putLong(0);
+        }
+        writeBuffer(header);
+        current.dataOffset = written;
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        IoLimiter.acquireWrite(length);
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    void endEntry(long crc, long size) throws IOException {
+        Entry entry = current;
+        current = null;
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = written - entry.dataOffset;
+        if (!entry.zip64Local && (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC))
+            throw new IOException("Entry " + entry.name + " exceeds 4GB but was not started as ZIP64 entry.");
+
+        ByteBuffer patch = littleEndian(12);
+        patch.putInt((int) crc);
+        patch.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+        patch.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : (int) entry.size);
+        out.flush();
+        writeAt(patch, entry.offset + 14);
+        if (entry.zip64Local) {
+            ByteBuffer extra = littleEndian(16);
+            extra.putLong(entry.size);
+            extra.putLong(entry.compressedSize);
+            writeAt(extra, entry.offset + 30 + entry.nameBytes.length + 4);
+        }
+        entries.add(entry);
+        if (finished != null) finished.accept(written);
+    }
+
+    /**
+     * Removes finished entry from central directory. Its data stays in archive unreferenced, so readers of
+     * central directory do not see it.
+     */
+    void dropEntry(String name) {
+        entries.removeIf(entry -> entry.name.equals(name));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralOffset = written;
+            for (Entry entry : entries) writeCentralHeader(entry);
+            long centralSize = written - centralOffset;
+
+            if (entries.size() >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+                long zip64EndOffset = written;
+                ByteBuffer end = littleEndian(56 + 20);
+                end.putInt(0x06064b50);
+                end.putLong(44);
+                end.putShort((short) VERSION_ZIP64);
+                end.putShort((short) VERSION_ZIP64);
+                end.putInt(0);
+                end.putInt(0);
+                end.putLong(entries.size());
+                end.putLong(entries.size());
+                end.putLong(centralSize);
+                end.putLong(centralOffset);
+                end.putInt(0x07064b50);
+                end.putInt(0);
+                end.putLong(zip64EndOffset);
+                end.putInt(1);
+                writeBuffer(end);
+            }
+
+            ByteBuffer end = littleEndian(22);
+            end.putInt(0x06054b50);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+            end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+            end.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+            end.putInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+            end.putShort((short) 0);
+            writeBuffer(end);
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        ByteArrayOutputStream zip64 = new ByteArrayOutputStream();
+        if (entry.size >= ZIP64_MAGIC) zip64.write(littleEndian(8).putLong(entry.size).array());
+        if (entry.compressedSize >= ZIP64_MAGIC) zip64.write(littleEndian(8).putLong(entry.compressedSize).array());
+        if (entry.offset >= ZIP64_MAGIC) zip64.write(littleEndian(8).putLong(entry.offset).array());
+        int extraLength = zip64.size() > 0 ? 4 + zip64.size() : 0;
+        int version = zip64.size() > 0 || entry.zip64Local ? VERSION_ZIP64 : VERSION;
+
+        ByteBuffer header = littleEndian(46 + entry.nameBytes.length + extraLength);
+        header.putInt(0x02014b50);
+        header.putShort((short) version);
+        header.putShort((short) version);
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) dosTime(entry.time));
+        header.putInt((int) entry.crc);
+        header.putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC));
+        header.putInt((int) Math.min(entry.size, ZIP64_MAGIC));
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+        header.put(entry.nameBytes);
+        if (extraLength > 0) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) zip64.size());
+            header.put(zip64.toByteArray());
+        }
+        writeBuffer(header);
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), 0, buffer.position());
+    }
+
+    private void writeAt(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long dosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980) return (1 << 21) | (1 << 16);
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+            | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final long time;
+        private final int method;
+        private final int flags;
+        private final long offset;
+        private final boolean zip64Local;
+        private long dataOffset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+
+        private Entry(String name, long time, int method, int flags, long offset, boolean zip64Local) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.time = time;
+            this.method = method;
+            this.flags = flags;
+            this.offset = offset;
+            this.zip64Local = zip64Local;
+        }
+    }
+}
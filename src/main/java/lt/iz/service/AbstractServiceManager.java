@@ -0,0 +1,150 @@
+package lt.iz.service;
+
+import com.google.common.base.Strings;
+import lt.iz.Database;
+import lt.iz.tracker.Metrics;
+import lt.iz.tracker.TimeTracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Starts and stops database services waiting for requested state. State is polled often right after
+ * request and polling interval grows up to {@link #MAX_POLL_INTERVAL_IN_MILLIS}, until service timeout.
+ */
+public abstract class AbstractServiceManager implements ServiceManager {
+
+    private static final long MIN_POLL_INTERVAL_IN_MILLIS = 50;
+    private static final long MAX_POLL_INTERVAL_IN_MILLIS = 1000;
+
+    private Database eventStore;
+    private Database mongo;
+
+    protected AbstractServiceManager(Database eventStore, Database mongo) {
+        if (Strings.isNullOrEmpty(eventStore.serviceName) || Strings.isNullOrEmpty(mongo.serviceName))
+            throw new IllegalArgumentException("Invalid database service name.");
+        this.eventStore = eventStore;
+        this.mongo = mongo;
+    }
+
+    protected abstract boolean isServiceRunning(String serviceName) throws IOException;
+
+    protected abstract boolean isServiceStopped(String serviceName) throws IOException;
+
+    protected abstract String getServiceStatus(String serviceName) throws IOException;
+
+    protected abstract void requestStart(String serviceName) throws IOException;
+
+    protected abstract void requestStop(String serviceName) throws IOException;
+
+    @Override
+    public void startEventStoreService() throws InterruptedException, IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        startService(eventStore);
+        Metrics.record("start", Metrics.EVENTSTORE, timeTracker, 0, 0);
+        logService("EventStore service " + eventStore.serviceName + " started.", timeTracker);
+    }
+
+    @Override
+    public void stopEventStoreService() throws InterruptedException, IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        stopService(eventStore);
+        Metrics.record("stop", Metrics.EVENTSTORE, timeTracker, 0, 0);
+        logService("EventStore service " + eventStore.serviceName + " stopped.", timeTracker);
+    }
+
+    @Override
+    public void startMongoService() throws InterruptedException, IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        startService(mongo);
+        Metrics.record("start", Metrics.MONGO, timeTracker, 0, 0);
+        logService("Mongo service " + mongo.serviceName + " started.", timeTracker);
+    }
+
+    @Override
+    public void stopMongoService() throws InterruptedException, IOException {
+        TimeTracker timeTracker = TimeTracker.start();
+        stopService(mongo);
+        Metrics.record("stop", Metrics.MONGO, timeTracker, 0, 0);
+        logService("Mongo service " + mongo.serviceName + " stopped.", timeTracker);
+    }
+
+    private void stopService(Database database) throws InterruptedException, IOException {
+        if (!isServiceRunning(database.serviceName)) return;
+
+        requestStop(database.serviceName);
+        if (!await(() -> isServiceStopped(database.serviceName), database.serviceTimeoutInSeconds))
+            throw new RuntimeException(String.format("Could not stop service %s for %s seconds. Current service status %s.",
+                database.serviceName, database.serviceTimeoutInSeconds, getServiceStatus(database.serviceName)));
+    }
+
+    private void startService(Database database) throws InterruptedException, IOException {
+        if (!isServiceStopped(database.serviceName)) return;
+
+        requestStart(database.serviceName);
+        if (!await(() -> isServiceRunning(database.serviceName), database.serviceTimeoutInSeconds))
+            throw new RuntimeException(String.format("Could not start service %s for %s seconds. Current service status %s.",
+                database.serviceName, database.serviceTimeoutInSeconds, getServiceStatus(database.serviceName)));
+    }
+
+    private static boolean await(Condition condition, int timeoutInSeconds) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutInSeconds);
+        long interval = MIN_POLL_INTERVAL_IN_MILLIS;
+        while (!condition.isMet()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return condition.isMet();
+            TimeUnit.MILLISECONDS.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL_IN_MILLIS);
+        }
+        return true;
+    }
+
+    protected static String invoke(List<String> command) throws IOException {
+        return run(command).output;
+    }
+
+    protected static CommandResult run(List<String> command) throws IOException {
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+        }
+        String value = sb.toString();
+        if (value.endsWith("\n")) value = value.substring(0, value.lastIndexOf("\n"));
+
+        try {
+            return new CommandResult(p.waitFor(), value);
+        } catch (InterruptedException e) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for command " + command, e);
+        }
+    }
+
+    private static void logService(String message, TimeTracker timeTracker) {
+        log("/SERVICE/ - " + message, timeTracker);
+    }
+
+    private interface Condition {
+        boolean isMet() throws IOException;
+    }
+
+    protected static class CommandResult {
+
+        protected final int exitCode;
+        protected final String output;
+
+        private CommandResult(int exitCode, String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+}
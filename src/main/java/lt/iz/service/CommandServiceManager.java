@@ -0,0 +1,71 @@
+package lt.iz.service;
+
+import com.google.common.base.Strings;
+import lt.iz.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Manages services with arbitrary shell commands, {@code {service}} in command is replaced by service name.
+ * Status command must exit with 0 while service is running and with any other code while it is stopped.
+ * Useful for scripted stand-ins to run and benchmark the whole stop-backup-start cycle on any OS.
+ */
+public class CommandServiceManager extends AbstractServiceManager {
+
+    private static final String SERVICE_PLACEHOLDER = "{service}";
+
+    private String startCommand;
+    private String stopCommand;
+    private String statusCommand;
+
+    public CommandServiceManager(Database eventStore, Database mongo, String startCommand, String stopCommand,
+                                 String statusCommand) {
+        super(eventStore, mongo);
+        if (Strings.isNullOrEmpty(startCommand) || Strings.isNullOrEmpty(stopCommand) || Strings.isNullOrEmpty(statusCommand))
+            throw new IllegalArgumentException("Service start, stop and status commands must be specified.");
+        this.startCommand = startCommand;
+        this.stopCommand = stopCommand;
+        this.statusCommand = statusCommand;
+    }
+
+    @Override
+    protected boolean isServiceRunning(String serviceName) throws IOException {
+        return run(shell(statusCommand, serviceName)).exitCode == 0;
+    }
+
+    @Override
+    protected boolean isServiceStopped(String serviceName) throws IOException {
+        return !isServiceRunning(serviceName);
+    }
+
+    @Override
+    protected String getServiceStatus(String serviceName) throws IOException {
+        return isServiceRunning(serviceName) ? "RUNNING" : "STOPPED";
+    }
+
+    @Override
+    protected void requestStart(String serviceName) throws IOException {
+        execute(startCommand, serviceName);
+    }
+
+    @Override
+    protected void requestStop(String serviceName) throws IOException {
+        execute(stopCommand, serviceName);
+    }
+
+    private static void execute(String command, String serviceName) throws IOException {
+        CommandResult result = run(shell(command, serviceName));
+        if (result.exitCode != 0)
+            throw new IOException("Command " + command + " for service " + serviceName + " failed with exit code "
+                + result.exitCode + ": " + result.output);
+    }
+
+    private static List<String> shell(String command, String serviceName) {
+        String value = command.replace(SERVICE_PLACEHOLDER, serviceName);
+        return File.separatorChar == '\\' ? Arrays.asList("cmd", "/c", value) : Arrays.asList("sh", "-c", value);
+    }
+
+}
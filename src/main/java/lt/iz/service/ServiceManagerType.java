@@ -0,0 +1,9 @@
+package lt.iz.service;
+
+public enum ServiceManagerType {
+
+    NSSM,
+    SYSTEMD,
+    COMMAND
+
+}
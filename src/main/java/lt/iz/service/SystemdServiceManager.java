@@ -0,0 +1,57 @@
+package lt.iz.service;
+
+import lt.iz.Database;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Manages Linux systemd units with {@code systemctl}. Start and stop are requested without blocking,
+ * so unit state is awaited with service timeouts like on Windows.
+ */
+public class SystemdServiceManager extends AbstractServiceManager {
+
+    private static final String SERVICE_STATUS_RUNNING = "active";
+
+    public SystemdServiceManager(Database eventStore, Database mongo) {
+        super(eventStore, mongo);
+    }
+
+    @Override
+    protected boolean isServiceRunning(String serviceName) throws IOException {
+        return SERVICE_STATUS_RUNNING.equals(getServiceStatus(serviceName));
+    }
+
+    @Override
+    protected boolean isServiceStopped(String serviceName) throws IOException {
+        String status = getServiceStatus(serviceName);
+        return "inactive".equals(status) || "failed".equals(status);
+    }
+
+    @Override
+    protected String getServiceStatus(String serviceName) throws IOException {
+        return invoke(Arrays.asList("systemctl", "is-active", serviceName));
+    }
+
+    @Override
+    protected void requestStart(String serviceName) throws IOException {
+        execute(Arrays.asList("systemctl", "start", "--no-block", serviceName));
+    }
+
+    @Override
+    protected void requestStop(String serviceName) throws IOException {
+        execute(Arrays.asList("systemctl", "stop", "--no-block", serviceName));
+    }
+
+    /**
+     * Runs {@code systemctl} request, unknown unit or missing permissions fail at once instead of timing out.
+     */
+    private static void execute(List<String> command) throws IOException {
+        CommandResult result = run(command);
+        if (result.exitCode != 0)
+            throw new IOException("Command " + String.join(" ", command) + " failed with exit code " + result.exitCode
+                + ": " + result.output);
+    }
+
+}
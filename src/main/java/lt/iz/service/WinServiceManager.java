@@ -1,128 +1,49 @@
 package lt.iz.service;
 
-import com.google.common.base.Strings;
-import lt.iz.tracker.TimeTracker;
+import lt.iz.Database;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.time.LocalDateTime;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 
-import static java.time.LocalDateTime.now;
-import static lt.iz.Logger.log;
-
-public class WinServiceManager implements ServiceManager {
-
-    private String eventstoreServiceName;
-    private String mongoServiceName;
+/**
+ * Manages Windows services installed with NSSM (https://nssm.cc).
+ */
+public class WinServiceManager extends AbstractServiceManager {
 
     private static final String SERVICE_STATUS_RUNNING = "SERVICE_RUNNING";
     private static final String SERVICE_STATUS_STOPPED = "SERVICE_STOPPED";
 
-    private static final Integer SERVICE_TIMEOUT_IN_SECONDS = 10;
-
     public WinServiceManager(String eventstoreServiceName, String mongoServiceName) {
-        if (Strings.isNullOrEmpty(eventstoreServiceName) || Strings.isNullOrEmpty(mongoServiceName))
-            throw new IllegalArgumentException("Invalid database windows service name.");
-        this.eventstoreServiceName = eventstoreServiceName;
-        this.mongoServiceName = mongoServiceName;
-    }
-
-    @Override
-    public void startEventStoreService() throws InterruptedException, IOException {
-        TimeTracker timeTracker = TimeTracker.start();
-        startService(eventstoreServiceName);
-        logService("EventStore service " + eventstoreServiceName + " started.", timeTracker);
-    }
-
-    @Override
-    public void stopEventStoreService() throws InterruptedException, IOException {
-        TimeTracker timeTracker = TimeTracker.start();
-        stopService(eventstoreServiceName);
-        logService("EventStore service " + eventstoreServiceName + " stopped.", timeTracker);
+        this(new Database(eventstoreServiceName, null), new Database(mongoServiceName, null));
     }
 
-    @Override
-    public void startMongoService() throws InterruptedException, IOException {
-        TimeTracker timeTracker = TimeTracker.start();
-        startService(mongoServiceName);
-        logService("Mongo service " + mongoServiceName + " started.", timeTracker);
+    public WinServiceManager(Database eventStore, Database mongo) {
+        super(eventStore, mongo);
     }
 
     @Override
-    public void stopMongoService() throws InterruptedException, IOException {
-        TimeTracker timeTracker = TimeTracker.start();
-        stopService(mongoServiceName);
-        logService("Mongo service " + mongoServiceName + " stopped.", timeTracker);
-    }
-
-    private Boolean isServiceRunning(String serviceName) throws IOException {
+    protected boolean isServiceRunning(String serviceName) throws IOException {
         return SERVICE_STATUS_RUNNING.equals(getServiceStatus(serviceName));
     }
 
-    private static Boolean isServiceStopped(String serviceName) throws IOException {
+    @Override
+    protected boolean isServiceStopped(String serviceName) throws IOException {
         return SERVICE_STATUS_STOPPED.equals(getServiceStatus(serviceName));
     }
 
-    private void stopService(String serviceName) throws InterruptedException, IOException {
-        if (!isServiceRunning(serviceName)) return;
-
-        invoke("nssm stop " + serviceName);
-        LocalDateTime timeout = getServiceTimeout();
-
-        while (!isServiceStopped(serviceName) && now().isBefore(timeout)) {
-            TimeUnit.SECONDS.sleep(1);
-        }
-
-        if (!isServiceStopped(serviceName))
-            throw new RuntimeException(String.format("Could not stop service %s for %s seconds. Current service status %s.",
-                serviceName, SERVICE_TIMEOUT_IN_SECONDS, getServiceStatus(serviceName)));
-    }
-
-    private void startService(String serviceName) throws InterruptedException, IOException {
-        if (!isServiceStopped(serviceName)) return;
-
-        invoke("nssm start " + serviceName);
-        LocalDateTime timeout = getServiceTimeout();
-
-        while (!isServiceRunning(serviceName) && now().isBefore(timeout)) {
-            TimeUnit.SECONDS.sleep(1);
-        }
-
-        if (!isServiceRunning(serviceName))
-            throw new RuntimeException(String.format("Could not start service %s for %s seconds. Current service status %s.",
-                serviceName, SERVICE_TIMEOUT_IN_SECONDS, getServiceStatus(serviceName)));
-    }
-
-    private static String getServiceStatus(String serviceName) throws IOException {
-        return invoke("nssm status " + serviceName);
-    }
-
-    private static String invoke(String command) throws IOException {
-        Process p = Runtime.getRuntime().exec(command);
-        BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        StringBuffer sb = new StringBuffer();
-        String line;
-        while ((line = br.readLine()) != null) {
-            sb.append(line).append("\n");
-        }
-        String value = sb.toString();
-        if (value.endsWith("\n")) value = value.substring(0, value.lastIndexOf("\n"));
-
-        return value;
-    }
-
-    private static LocalDateTime getServiceTimeout() {
-        return now().plusSeconds(SERVICE_TIMEOUT_IN_SECONDS);
+    @Override
+    protected String getServiceStatus(String serviceName) throws IOException {
+        return invoke(Arrays.asList("nssm", "status", serviceName));
     }
 
-    private static void logService(String message) {
-        log("/SERVICE/ - " + message);
+    @Override
+    protected void requestStart(String serviceName) throws IOException {
+        invoke(Arrays.asList("nssm", "start", serviceName));
     }
 
-    private static void logService(String message, TimeTracker timeTracker) {
-        log("/SERVICE/ - " + message, timeTracker);
+    @Override
+    protected void requestStop(String serviceName) throws IOException {
+        invoke(Arrays.asList("nssm", "stop", serviceName));
     }
 
 }
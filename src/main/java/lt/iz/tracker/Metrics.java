@@ -0,0 +1,258 @@
+package lt.iz.tracker;
+
+import lt.iz.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects duration, bytes and files of every stage of the run: service stop and start, copy, compress, delete,
+ * extract and restore. Stages are recorded from any thread and belong to the stack of that thread (see
+ * {@link Logger#getStack()}), collected runs and stages are written as JSON run report of every stack and
+ * Prometheus textfile collector metrics of all stacks.
+ */
+public class Metrics {
+
+    public static final String EVENTSTORE = "eventstore";
+    public static final String MONGO = "mongo";
+    public static final String ALL_DATABASES = "all";
+
+    private static final List<Stage> stages = Collections.synchronizedList(new ArrayList<>());
+    private static final Map<String, Run> runs = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Records finished stage of {@code database}, {@code null} database means the stage covers all databases.
+     */
+    public static void record(String stage, String database, TimeTracker timeTracker, long bytes, long files) {
+        stages.add(new Stage(Logger.getStack(), stage, database == null ? ALL_DATABASES : database, timeTracker.finish(),
+            bytes, files));
+    }
+
+    /**
+     * Records finished run of {@code stack}, {@code null} stack is the only stack given by command line arguments.
+     */
+    public static void recordRun(String stack, String action, boolean success, Instant started, TimeTracker timeTracker) {
+        runs.put(stack, new Run(stack, action, success, started, timeTracker.finish()));
+    }
+
+    /**
+     * Forgets recorded stages of {@code stack}, so the next run of long running daemon reports only its own stages.
+     */
+    public static void clear(String stack) {
+        stages.removeIf(stage -> Objects.equals(stack, stage.stack));
+    }
+
+    public static List<Stage> getStages() {
+        synchronized (stages) {
+            return new ArrayList<>(stages);
+        }
+    }
+
+    /**
+     * Writes JSON report of recorded run of {@code stack} with its stages in order they finished.
+     */
+    public static void writeReport(File file, String stack) throws IOException {
+        Run run = runs.get(stack);
+        if (run == null) throw new IllegalStateException("Run of stack " + stack + " is not recorded.");
+        StringBuilder json = new StringBuilder("{\n");
+        if (stack != null) json.append("  \"stack\": ").append(quote(stack)).append(",\n");
+        json.append("  \"action\": ").append(quote(run.action)).append(",\n");
+        json.append("  \"success\": ").append(run.success).append(",\n");
+        json.append("  \"started\": ").append(quote(run.started.toString())).append(",\n");
+        json.append("  \"durationNanos\": ").append(run.nanos).append(",\n");
+        json.append("  \"durationSeconds\": ").append(TimeTracker.format(run.nanos)).append(",\n");
+        json.append("  \"stages\": [");
+        List<Stage> recorded = new ArrayList<>();
+        for (Stage stage : getStages()) {
+            if (Objects.equals(stack, stage.stack)) recorded.add(stage);
+        }
+        for (int i = 0; i < recorded.size(); i++) {
+            Stage stage = recorded.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {")
+                .append("\"stage\": ").append(quote(stage.name))
+                .append(", \"database\": ").append(quote(stage.database))
+                .append(", \"durationNanos\": ").append(stage.nanos)
+                .append(", \"durationSeconds\": ").append(TimeTracker.format(stage.nanos))
+                .append(", \"bytes\": ").append(stage.bytes)
+                .append(", \"files\": ").append(stage.files)
+                .append(", \"bytesPerSecond\": ").append(format(stage.getBytesPerSecond()))
+                .append(", \"filesPerSecond\": ").append(format(stage.getFilesPerSecond()))
+                .append("}");
+        }
+        json.append(recorded.isEmpty() ? "]\n" : "\n  ]\n").append("}\n");
+        write(file, json.toString());
+    }
+
+    /**
+     * Writes metrics of all recorded runs in Prometheus text format for node exporter textfile collector, samples
+     * of stacks are labeled with {@code stack}. Stages of the same stack, name and database are summed, file is
+     * replaced with rename so collector never reads it half written.
+     */
+    public static void writePrometheus(File file) throws IOException {
+        Map<String, Stage> totals = new LinkedHashMap<>();
+        for (Stage stage : getStages()) {
+            totals.merge(stage.stack + "\t" + stage.name + "\t" + stage.database, stage, (a, b) ->
+                new Stage(a.stack, a.name, a.database, a.nanos + b.nanos, a.bytes + b.bytes, a.files + b.files));
+        }
+        List<Run> recordedRuns;
+        synchronized (runs) {
+            recordedRuns = new ArrayList<>(runs.values());
+        }
+
+        StringBuilder text = new StringBuilder();
+        metric(text, "nano_db_run_success", "1 if the last run succeeded, 0 otherwise.");
+        for (Run run : recordedRuns) {
+            text.append("nano_db_run_success{").append(run.getLabels()).append("} ").append(run.success ? 1 : 0).append("\n");
+        }
+        metric(text, "nano_db_run_timestamp_seconds", "Start time of the last run.");
+        for (Run run : recordedRuns) {
+            text.append("nano_db_run_timestamp_seconds{").append(run.getLabels()).append("} ")
+                .append(run.started.getEpochSecond()).append("\n");
+        }
+        metric(text, "nano_db_run_duration_seconds", "Duration of the last run.");
+        for (Run run : recordedRuns) {
+            text.append("nano_db_run_duration_seconds{").append(run.getLabels()).append("} ")
+                .append(TimeTracker.format(run.nanos)).append("\n");
+        }
+
+        metric(text, "nano_db_stage_duration_seconds", "Duration of the run stage.");
+        for (Stage stage : totals.values()) {
+            sample(text, "nano_db_stage_duration_seconds", stage, TimeTracker.format(stage.nanos));
+        }
+        metric(text, "nano_db_stage_bytes", "Bytes processed by the run stage.");
+        for (Stage stage : totals.values()) {
+            sample(text, "nano_db_stage_bytes", stage, String.valueOf(stage.bytes));
+        }
+        metric(text, "nano_db_stage_files", "Files processed by the run stage.");
+        for (Stage stage : totals.values()) {
+            sample(text, "nano_db_stage_files", stage, String.valueOf(stage.files));
+        }
+        metric(text, "nano_db_stage_bytes_per_second", "Throughput of the run stage.");
+        for (Stage stage : totals.values()) {
+            sample(text, "nano_db_stage_bytes_per_second", stage, format(stage.getBytesPerSecond()));
+        }
+        write(file, text.toString());
+    }
+
+    private static void metric(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        text.append("# TYPE ").append(name).append(" gauge\n");
+    }
+
+    private static void sample(StringBuilder text, String name, Stage stage, String value) {
+        Run run = runs.get(stage.stack);
+        String runLabels = run != null ? run.getLabels() : stage.stack == null ? "" : "stack=\"" + stage.stack + "\"";
+        text.append(name).append("{").append(runLabels).append(runLabels.isEmpty() ? "" : ",")
+            .append("stage=\"").append(stage.name)
+            .append("\",database=\"").append(stage.database).append("\"} ").append(value).append("\n");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temp.toPath()), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append("\"").toString();
+    }
+
+    private static class Run {
+
+        private final String stack;
+        private final String action;
+        private final boolean success;
+        private final Instant started;
+        private final long nanos;
+
+        private Run(String stack, String action, boolean success, Instant started, long nanos) {
+            this.stack = stack;
+            this.action = action;
+            this.success = success;
+            this.started = started;
+            this.nanos = nanos;
+        }
+
+        private String getLabels() {
+            return (stack == null ? "" : "stack=\"" + stack + "\",") + "action=\"" + action + "\"";
+        }
+    }
+
+    public static class Stage {
+
+        private final String stack;
+        private final String name;
+        private final String database;
+        private final long nanos;
+        private final long bytes;
+        private final long files;
+
+        private Stage(String stack, String name, String database, long nanos, long bytes, long files) {
+            this.stack = stack;
+            this.name = name;
+            this.database = database;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        public String getStack() {
+            return stack;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDatabase() {
+            return database;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public double getBytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / TimeTracker.toSeconds(nanos);
+        }
+
+        public double getFilesPerSecond() {
+            return nanos == 0 ? 0 : files / TimeTracker.toSeconds(nanos);
+        }
+    }
+}
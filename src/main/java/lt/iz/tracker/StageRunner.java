@@ -0,0 +1,63 @@
+package lt.iz.tracker;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static lt.iz.Logger.log;
+
+/**
+ * Runs independent stages concurrently, waits for all of them and reports the longest one as critical path.
+ */
+public class StageRunner {
+
+    public interface Stage {
+        void run() throws IOException, InterruptedException;
+    }
+
+    public static void run(String name, Map<String, Stage> stages) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(stages.size());
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, Stage> stage : stages.entrySet()) {
+                futures.put(stage.getKey(), executor.submit(() -> {
+                    TimeTracker timeTracker = TimeTracker.start();
+                    stage.getValue().run();
+                    return timeTracker.finish();
+                }));
+            }
+
+            Map<String, Long> durations = new LinkedHashMap<>();
+            Throwable failure = null;
+            for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+                try {
+                    durations.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                }
+            }
+            if (failure != null) rethrow(failure);
+
+            String criticalPath = durations.entrySet().stream()
+                .max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null);
+            StringBuilder message = new StringBuilder("/ STAGE / - " + name + ":");
+            durations.forEach((stage, duration) ->
+                message.append(" ").append(stage).append(" ").append(TimeTracker.format(duration)).append(" sec.,"));
+            log(message.append(" critical path ").append(criticalPath).toString());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws IOException, InterruptedException {
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof InterruptedException) throw (InterruptedException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        throw new RuntimeException(failure.getMessage(), failure);
+    }
+}
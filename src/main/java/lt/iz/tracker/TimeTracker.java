@@ -1,23 +1,38 @@
 package lt.iz.tracker;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-
-import static java.time.LocalDateTime.now;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Measures elapsed time with {@link System#nanoTime()}, so short phases are not rounded to whole seconds.
+ */
 public class TimeTracker {
 
-    private LocalDateTime start;
+    private final long start;
 
-    private TimeTracker(LocalDateTime start) {
+    private TimeTracker(long start) {
         this.start = start;
     }
 
     public static TimeTracker start() {
-        return new TimeTracker(now());
+        return new TimeTracker(System.nanoTime());
     }
 
+    /**
+     * Nanoseconds elapsed since start.
+     */
     public long finish() {
-        return start.until(now(), ChronoUnit.SECONDS);
+        return System.nanoTime() - start;
+    }
+
+    public static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Formats nanoseconds as seconds with millisecond precision, e.g. {@code 0.042}.
+     */
+    public static String format(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", toSeconds(nanos));
     }
 }
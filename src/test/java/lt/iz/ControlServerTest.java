@@ -0,0 +1,100 @@
+package lt.iz;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ControlServerTest {
+
+    private static final String TOKEN = "secret-token";
+
+    private final List<Action> actions = new CopyOnWriteArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private Daemon daemon;
+    private ControlServer server;
+
+    @Before
+    public void setUp() {
+        Params params = new Params(Action.DAEMON, new File("backup"), new Database("es", new File("es")),
+            new Database("mongo", new File("mongo")));
+        daemon = new Daemon(Collections.singletonList(params), 1, (stack, action) -> {
+            actions.add(action);
+            started.countDown();
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (server != null) server.stop();
+        daemon.stop();
+        daemon.await();
+    }
+
+    @Test
+    public void rejectsRequestsWithoutToken() throws Exception {
+        start(true);
+
+        assertEquals(401, request("GET", "/status", null));
+        assertEquals(401, request("POST", "/backup", "wrong-token"));
+        assertEquals(401, request("POST", "/restore", null));
+        assertEquals(401, request("POST", "/stop", TOKEN.toUpperCase()));
+        assertEquals(200, request("GET", "/status", TOKEN));
+        assertTrue(actions.isEmpty());
+    }
+
+    @Test
+    public void startsActionWithToken() throws Exception {
+        start(false);
+
+        assertEquals(202, request("POST", "/backup", TOKEN));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(Action.BACKUP), actions);
+    }
+
+    @Test
+    public void rejectsRestoreUnlessEnabled() throws Exception {
+        start(false);
+
+        assertEquals(403, request("POST", "/restore", TOKEN));
+        assertTrue(actions.isEmpty());
+    }
+
+    @Test
+    public void startsRestoreIfEnabled() throws Exception {
+        start(true);
+
+        assertEquals(202, request("POST", "/restore", TOKEN));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(Action.RESTORE), actions);
+    }
+
+    private void start(boolean restoreEnabled) throws IOException {
+        server = new ControlServer(daemon, 0, TOKEN, restoreEnabled);
+        server.start();
+    }
+
+    private int request(String method, String path, String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+            .openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) connection.setRequestProperty(ControlServer.TOKEN_HEADER, token);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package lt.iz;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CronScheduleTest {
+
+    @Test
+    public void nextIsStrictlyAfterGivenTime() {
+        CronSchedule hourly = CronSchedule.parse("0 * * * *");
+
+        assertEquals(time(2026, 10, 16, 11, 0), hourly.next(time(2026, 10, 16, 10, 30)));
+        assertEquals(time(2026, 10, 16, 11, 0), hourly.next(time(2026, 10, 16, 10, 0)));
+        assertEquals(time(2026, 10, 16, 11, 0), hourly.next(LocalDateTime.of(2026, 10, 16, 10, 59, 59)));
+    }
+
+    @Test
+    public void matchesSteps() {
+        assertEquals(time(2026, 10, 16, 10, 15), CronSchedule.parse("*/15 * * * *")
+            .next(LocalDateTime.of(2026, 10, 16, 10, 7, 30)));
+        assertEquals(time(2026, 10, 16, 11, 5), CronSchedule.parse("5/20 * * * *").next(time(2026, 10, 16, 10, 46)));
+        assertEquals(time(2026, 10, 16, 14, 0), CronSchedule.parse("0 8-18/3 * * *").next(time(2026, 10, 16, 11, 0)));
+        assertEquals(time(2026, 10, 17, 8, 0), CronSchedule.parse("0 8-18/3 * * *").next(time(2026, 10, 16, 17, 0)));
+    }
+
+    @Test
+    public void matchesListsAndRanges() {
+        CronSchedule schedule = CronSchedule.parse("10,40 2-3 * * *");
+
+        assertEquals(time(2026, 10, 16, 2, 40), schedule.next(time(2026, 10, 16, 2, 10)));
+        assertEquals(time(2026, 10, 16, 3, 10), schedule.next(time(2026, 10, 16, 2, 40)));
+        assertEquals(time(2026, 10, 17, 2, 10), schedule.next(time(2026, 10, 16, 3, 40)));
+    }
+
+    @Test
+    public void matchesDaysOfWeek() {
+        CronSchedule workdays = CronSchedule.parse("30 2 * * 1-5");
+
+        assertEquals(time(2026, 10, 19, 2, 30), workdays.next(time(2026, 10, 16, 3, 0)));
+        assertEquals(time(2026, 10, 25, 12, 0), CronSchedule.parse("0 12 * * 7").next(time(2026, 10, 19, 0, 0)));
+        assertEquals(time(2026, 10, 25, 12, 0), CronSchedule.parse("0 12 * * 0").next(time(2026, 10, 19, 0, 0)));
+    }
+
+    @Test
+    public void matchesEitherDayOfMonthOrDayOfWeekIfBothRestricted() {
+        CronSchedule schedule = CronSchedule.parse("0 0 13 * 5");
+
+        assertEquals(time(2026, 10, 2, 0, 0), schedule.next(time(2026, 10, 1, 0, 0)));
+        assertEquals(time(2026, 10, 13, 0, 0), schedule.next(time(2026, 10, 10, 0, 0)));
+        assertEquals(time(2026, 10, 16, 0, 0), schedule.next(time(2026, 10, 13, 0, 0)));
+    }
+
+    @Test
+    public void matchesOnlyDayOfMonthIfDayOfWeekIsAny() {
+        assertEquals(time(2026, 11, 13, 0, 0), CronSchedule.parse("0 0 13 * *").next(time(2026, 10, 13, 0, 0)));
+        assertEquals(time(2026, 11, 1, 0, 0), CronSchedule.parse("0 0 */10 * *").next(time(2026, 10, 31, 0, 0)));
+    }
+
+    @Test
+    public void skipsToMatchingMonthAndLeapDay() {
+        assertEquals(time(2027, 1, 1, 0, 0), CronSchedule.parse("0 0 1 1 *").next(time(2026, 10, 18, 0, 0)));
+        assertEquals(time(2028, 2, 29, 0, 0), CronSchedule.parse("0 0 29 2 *").next(time(2026, 10, 18, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsIfScheduleNeverMatches() {
+        CronSchedule.parse("0 0 30 2 *").next(time(2026, 10, 18, 0, 0));
+    }
+
+    @Test
+    public void rejectsIllegalExpressions() {
+        for (String expression : new String[]{"0 * * *", "60 * * * *", "0 24 * * *", "0 0 0 * *", "0 0 * 13 *",
+            "0 0 * * 8", "*/0 * * * *", "5-1 * * * *", "a * * * *"}) {
+            try {
+                CronSchedule.parse(expression);
+                fail("Illegal schedule " + expression + " parsed.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static LocalDateTime time(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute);
+    }
+}
@@ -0,0 +1,168 @@
+package lt.iz.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsManifestOfIncrementalChain() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Map<String, File> sources = newSources();
+        File first = new File(backupDir, "nano-db-1.zip");
+        File second = new File(backupDir, "nano-db-2.zip");
+        File third = new File(backupDir, "nano-db-3.zip");
+        Manifest manifest = Archiver.compressIncremental(first, "nano-db-1", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(2000, 10));
+        Files.write(new File(sources.get("eventstore"), "chunk-000002.000000").toPath(), randomBytes(5000, 11));
+        manifest = Archiver.compressIncremental(second, "nano-db-2", sources, null, manifest, first.getName(), 1);
+        Files.delete(new File(sources.get("eventstore"), "chunk-000001.000000").toPath());
+        Files.write(new File(sources.get("mongo"), "journal/log.1").toPath(), randomBytes(500, 12));
+        manifest = Archiver.compressIncremental(third, "nano-db-3", sources, null, manifest, second.getName(), 1);
+
+        assertEquals(second.getName(), manifest.getParent());
+        assertEquals(first.getName(), manifest.get("eventstore/chunk-000000.000000").archive);
+        assertEquals(second.getName(), manifest.get("mongo/collection.wt").archive);
+        assertEquals(second.getName(), manifest.get("eventstore/chunk-000002.000000").archive);
+        assertEquals(third.getName(), manifest.get("mongo/journal/log.1").archive);
+        assertNull(manifest.get("eventstore/chunk-000001.000000"));
+        try (ZipFile zip = new ZipFile(third)) {
+            assertNull(zip.getEntry("nano-db-3/eventstore/chunk-000000.000000"));
+            assertNotNull(zip.getEntry("nano-db-3/mongo/journal/log.1"));
+        }
+
+        Map<String, File> targets = newTargets();
+        Archiver.Result result = Archiver.extract(Archiver.readManifest(third), backupDir, targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(5, result.getFiles());
+    }
+
+    @Test
+    public void extractsOnlyIncludedFiles() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Map<String, File> sources = newSources();
+        File first = new File(backupDir, "nano-db-1.zip");
+        File second = new File(backupDir, "nano-db-2.zip");
+        Manifest manifest = Archiver.compressIncremental(first, "nano-db-1", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(2000, 10));
+        manifest = Archiver.compressIncremental(second, "nano-db-2", sources, null, manifest, first.getName(), 1);
+
+        Map<String, File> targets = newTargets();
+        Archiver.Result result = Archiver.extract(manifest, backupDir, targets, path -> path.endsWith(".wt"));
+
+        assertEquals(2, result.getFiles());
+        assertArrayEquals(Files.readAllBytes(new File(sources.get("mongo"), "collection.wt").toPath()),
+            Files.readAllBytes(new File(targets.get("mongo"), "collection.wt").toPath()));
+        assertTrue(new File(targets.get("mongo"), "empty.wt").isFile());
+        assertFalse(new File(targets.get("mongo"), "journal").exists());
+        assertEquals(0, targets.get("eventstore").list().length);
+    }
+
+    @Test
+    public void failsIfArchiveOfChainIsMissing() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Map<String, File> sources = newSources();
+        File first = new File(backupDir, "nano-db-1.zip");
+        File second = new File(backupDir, "nano-db-2.zip");
+        Manifest manifest = Archiver.compressIncremental(first, "nano-db-1", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(2000, 10));
+        manifest = Archiver.compressIncremental(second, "nano-db-2", sources, null, manifest, first.getName(), 1);
+        Files.delete(first.toPath());
+
+        try {
+            Archiver.extract(manifest, backupDir, newTargets());
+            fail("Manifest extracted without archive of its chain.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(first.getName()));
+        }
+    }
+
+    @Test
+    public void rejectsManifestPathLeavingTargetDirectory() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Manifest manifest = new Manifest(null);
+        manifest.add(new Manifest.Entry(false, "mongo/../../outside.txt", 0, 0, null, "nano-db-1.zip"));
+
+        try {
+            Archiver.extract(manifest, backupDir, newTargets());
+            fail("Manifest path leaving target directory extracted.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("mongo/../../outside.txt"));
+        }
+    }
+
+    private Map<String, File> newSources() throws IOException {
+        File eventStore = folder.newFolder("eventstore");
+        File mongo = folder.newFolder("mongo");
+        Files.createDirectories(new File(mongo, "journal").toPath());
+        Files.createDirectories(new File(mongo, "diagnostic.data").toPath());
+        Files.write(new File(eventStore, "chunk-000000.000000").toPath(), randomBytes(300000, 1));
+        Files.write(new File(eventStore, "chunk-000001.000000").toPath(), randomBytes(300000, 2));
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(2000, 3));
+        Files.write(new File(mongo, "journal/log.1").toPath(), randomBytes(1000, 4));
+        Files.write(new File(mongo, "empty.wt").toPath(), new byte[0]);
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("eventstore", eventStore);
+        sources.put("mongo", mongo);
+        return sources;
+    }
+
+    private Map<String, File> newTargets() throws IOException {
+        Map<String, File> targets = new LinkedHashMap<>();
+        targets.put("eventstore", folder.newFolder());
+        targets.put("mongo", folder.newFolder());
+        return targets;
+    }
+
+    private static void assertSameFiles(Map<String, File> sources, Map<String, File> targets) throws IOException {
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            assertSameFiles(source.getValue(), targets.get(source.getKey()));
+        }
+    }
+
+    private static void assertSameFiles(File source, File target) throws IOException {
+        String[] names = source.list();
+        Arrays.sort(names);
+        String[] targetNames = target.list();
+        Arrays.sort(targetNames);
+        assertArrayEquals(source.toString(), names, targetNames);
+        for (String name : names) {
+            File file = new File(source, name);
+            File targetFile = new File(target, name);
+            assertEquals(name, file.isDirectory(), targetFile.isDirectory());
+            if (file.isDirectory()) {
+                assertSameFiles(file, targetFile);
+            } else {
+                assertArrayEquals(name, Files.readAllBytes(file.toPath()), Files.readAllBytes(targetFile.toPath()));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,172 @@
+package lt.iz.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CatalogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buildsMissingCatalogFromArchivesAndSnapshots() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Map<String, File> sources = newSources();
+        File full = new File(backupDir, "nano-db-20261016100000.zip");
+        File incremental = new File(backupDir, "nano-db-20261016110000.zip");
+        Manifest manifest = Archiver.compressIncremental(full, "nano-db-20261016100000", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(1000, 3));
+        Archiver.compressIncremental(incremental, "nano-db-20261016110000", sources, null, manifest, full.getName(), 1);
+        new ChunkRepository(backupDir, 1).backup("nano-db-20261016120000", sources, null);
+
+        Catalog catalog = Catalog.open(backupDir);
+
+        List<Catalog.Entry> entries = catalog.getEntries();
+        assertEquals(Arrays.asList("nano-db-20261016100000", "nano-db-20261016110000", "nano-db-20261016120000"),
+            names(entries));
+        Catalog.Entry fullEntry = entries.get(0);
+        assertEquals(Catalog.ARCHIVE, fullEntry.kind);
+        assertEquals(LocalDateTime.of(2026, 10, 16, 10, 0), fullEntry.created);
+        assertEquals(full.length(), fullEntry.size);
+        assertEquals("eventstore,mongo", sorted(fullEntry.databases));
+        assertEquals(Catalog.UNVERIFIED, fullEntry.status);
+        assertNull(fullEntry.parent);
+        assertEquals("nano-db-20261016100000", entries.get(1).parent);
+        Catalog.Entry snapshot = entries.get(2);
+        assertEquals(Catalog.SNAPSHOT, snapshot.kind);
+        assertEquals(2000, snapshot.size);
+        assertEquals(snapshot.name, catalog.getLatest(null).name);
+        assertEquals(incremental.getName(), catalog.getLatest(Catalog.ARCHIVE).name + ".zip");
+        assertTrue(new File(backupDir, Catalog.FILE_NAME).exists());
+    }
+
+    @Test
+    public void keepsChangesAcrossReopening() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        Catalog catalog = Catalog.open(backupDir);
+        assertEquals(Collections.emptyList(), catalog.getEntries());
+        File first = writeArchive(backupDir, "nano-db-20261016100000");
+        File second = writeArchive(backupDir, "nano-db-20261016110000");
+        catalog.add(new Catalog.Entry("nano-db-20261016100000", Catalog.ARCHIVE, LocalDateTime.of(2026, 10, 16, 10, 0),
+            first.length(), "eventstore,mongo", Catalog.UNVERIFIED, null));
+        catalog.add(new Catalog.Entry("nano-db-20261016110000", Catalog.ARCHIVE, LocalDateTime.of(2026, 10, 16, 11, 0),
+            second.length(), "", Catalog.UNVERIFIED, "nano-db-20261016100000"));
+        catalog.setStatus("nano-db-20261016100000", Catalog.CORRUPT);
+
+        Catalog reopened = Catalog.open(backupDir);
+
+        List<Catalog.Entry> entries = reopened.getEntries();
+        assertEquals(Arrays.asList("nano-db-20261016100000", "nano-db-20261016110000"), names(entries));
+        assertEquals(Catalog.CORRUPT, entries.get(0).status);
+        assertEquals("eventstore,mongo", entries.get(0).databases);
+        assertEquals("", entries.get(1).databases);
+        assertEquals("nano-db-20261016100000", entries.get(1).parent);
+        assertEquals(LocalDateTime.of(2026, 10, 16, 11, 0), entries.get(1).created);
+
+        reopened.remove("nano-db-20261016110000");
+        assertEquals(Collections.singletonList("nano-db-20261016100000"), names(Catalog.open(backupDir).getEntries()));
+    }
+
+    @Test
+    public void dropsEntriesOfDeletedBackups() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        File first = writeArchive(backupDir, "nano-db-20261016100000");
+        writeArchive(backupDir, "nano-db-20261016110000");
+        Catalog catalog = Catalog.open(backupDir);
+
+        Files.delete(first.toPath());
+
+        assertNull(catalog.get("nano-db-20261016100000"));
+        assertEquals(Collections.singletonList("nano-db-20261016110000"), names(Catalog.open(backupDir).getEntries()));
+    }
+
+    @Test
+    public void replacesCatalogFileWhole() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        writeArchive(backupDir, "nano-db-20261016100000");
+        Catalog catalog = Catalog.open(backupDir);
+        File file = new File(backupDir, Catalog.FILE_NAME);
+        File temporary = new File(backupDir, Catalog.FILE_NAME + ".tmp");
+        Files.write(temporary.toPath(), "left by interrupted write".getBytes(StandardCharsets.UTF_8));
+
+        catalog.setStatus("nano-db-20261016100000", Catalog.VERIFIED);
+
+        assertFalse(temporary.exists());
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals("#nano-db-catalog", lines.get(0));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1), lines.get(1).startsWith("nano-db-20261016100000\tarchive\t2026-10-16T10:00:00\t"));
+        assertTrue(lines.get(1), lines.get(1).endsWith("\tverified\t-"));
+    }
+
+    @Test
+    public void rejectsCatalogWithIllegalHeader() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        byte[] content = "not a catalog\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(new File(backupDir, Catalog.FILE_NAME).toPath(), content);
+
+        try {
+            Catalog.open(backupDir);
+            fail("Catalog with illegal header opened.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("header"));
+        }
+        assertArrayEquals(content, Files.readAllBytes(new File(backupDir, Catalog.FILE_NAME).toPath()));
+    }
+
+    private File writeArchive(File backupDir, String name) throws IOException {
+        File archive = new File(backupDir, name + ".zip");
+        Map<String, File> sources = new LinkedHashMap<>();
+        File mongo = folder.newFolder();
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(100, 1));
+        sources.put("mongo", mongo);
+        Archiver.compress(archive, name, sources, null, 1);
+        return archive;
+    }
+
+    private Map<String, File> newSources() throws IOException {
+        File eventStore = folder.newFolder("eventstore");
+        File mongo = folder.newFolder("mongo");
+        Files.write(new File(eventStore, "chunk-000000.000000").toPath(), randomBytes(1000, 1));
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(1000, 2));
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("eventstore", eventStore);
+        sources.put("mongo", mongo);
+        return sources;
+    }
+
+    private static String sorted(String databases) {
+        return Arrays.stream(databases.split(",")).sorted().collect(Collectors.joining(","));
+    }
+
+    private static List<String> names(List<Catalog.Entry> entries) {
+        return entries.stream().map(e -> e.name).collect(Collectors.toList());
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,156 @@
+package lt.iz.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresSnapshotToTargetDirectories() throws IOException {
+        Map<String, File> sources = newSources();
+        ChunkRepository repository = new ChunkRepository(folder.newFolder("backup"), 2);
+        repository.backup("nano-db-1", sources, null);
+
+        Map<String, File> targets = newTargets();
+        Archiver.Result result = repository.restore("nano-db-1", targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(4, result.getFiles());
+        assertTrue(new File(targets.get("mongo"), "journal").isDirectory());
+        assertEquals(Collections.emptyList(), repository.verify("nano-db-1"));
+    }
+
+    @Test
+    public void storesChunkRepeatedInOneBackupOnce() throws IOException {
+        Map<String, File> sources = newSources();
+        byte[] content = Files.readAllBytes(new File(sources.get("eventstore"), "chunk-000000.000000").toPath());
+        Files.write(new File(sources.get("eventstore"), "chunk-000001.000000").toPath(), content);
+        ChunkRepository repository = new ChunkRepository(folder.newFolder("backup"), 4);
+        List<File> stored = Collections.synchronizedList(new ArrayList<>());
+
+        long written = repository.backup("nano-db-1", sources, null, stored::add);
+
+        assertEquals(new HashSet<>(stored).size(), stored.size());
+        assertEquals(written, stored.size());
+        assertEquals(written, countChunks(repository));
+        assertEquals(0, repository.backup("nano-db-2", sources, null));
+    }
+
+    @Test
+    public void collectsChunksOfDeletedSnapshotsOnly() throws IOException {
+        Map<String, File> sources = newSources();
+        ChunkRepository repository = new ChunkRepository(folder.newFolder("backup"), 2);
+        repository.backup("nano-db-1", sources, null);
+        long first = countChunks(repository);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(400000, 10));
+        repository.backup("nano-db-2", sources, null);
+        assertTrue(countChunks(repository) > first);
+
+        assertEquals(0, repository.collectGarbage());
+        repository.delete("nano-db-1");
+        assertTrue(repository.collectGarbage() > 0);
+
+        assertEquals(Collections.singletonList("nano-db-2"), repository.listSnapshots());
+        assertEquals(Collections.emptyList(), repository.verify("nano-db-2"));
+        Map<String, File> targets = newTargets();
+        repository.restore("nano-db-2", targets);
+        assertSameFiles(sources, targets);
+    }
+
+    @Test
+    public void rejectsSnapshotPathLeavingTargetDirectory() throws IOException {
+        ChunkRepository repository = new ChunkRepository(folder.newFolder("backup"), 1);
+        Files.createDirectories(repository.getSnapshotsDir().toPath());
+        Files.write(repository.resolveSnapshot("crafted").toPath(), Arrays.asList("#nano-db-snapshot",
+            "F\tmongo/../../outside.txt\t0\t0\t"), StandardCharsets.UTF_8);
+        Map<String, File> targets = newTargets();
+
+        try {
+            repository.restore("crafted", targets);
+            fail("Snapshot path leaving target directory restored.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("mongo/../../outside.txt"));
+        }
+        assertFalse(new File(folder.getRoot(), "outside.txt").exists());
+    }
+
+    private Map<String, File> newSources() throws IOException {
+        File eventStore = folder.newFolder("eventstore");
+        File mongo = folder.newFolder("mongo");
+        Files.createDirectories(new File(mongo, "journal").toPath());
+        Files.write(new File(eventStore, "chunk-000000.000000").toPath(), randomBytes(3000000, 1));
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(1000, 2));
+        Files.write(new File(mongo, "journal/log.1").toPath(), randomBytes(300000, 3));
+        Files.write(new File(mongo, "empty.wt").toPath(), new byte[0]);
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("eventstore", eventStore);
+        sources.put("mongo", mongo);
+        return sources;
+    }
+
+    private Map<String, File> newTargets() throws IOException {
+        Map<String, File> targets = new LinkedHashMap<>();
+        targets.put("eventstore", folder.newFolder());
+        targets.put("mongo", folder.newFolder());
+        return targets;
+    }
+
+    private static void assertSameFiles(Map<String, File> sources, Map<String, File> targets) throws IOException {
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            assertSameFiles(source.getValue(), targets.get(source.getKey()));
+        }
+    }
+
+    private static void assertSameFiles(File source, File target) throws IOException {
+        String[] names = source.list();
+        Arrays.sort(names);
+        String[] targetNames = target.list();
+        Arrays.sort(targetNames);
+        assertArrayEquals(source.toString(), names, targetNames);
+        for (String name : names) {
+            File file = new File(source, name);
+            if (file.isDirectory()) {
+                assertSameFiles(file, new File(target, name));
+            } else {
+                assertArrayEquals(name, Files.readAllBytes(file.toPath()), Files.readAllBytes(new File(target, name).toPath()));
+            }
+        }
+    }
+
+    private static long countChunks(ChunkRepository repository) {
+        long count = 0;
+        for (File prefixDir : repository.getChunksDir().listFiles(File::isDirectory)) {
+            count += prefixDir.listFiles().length;
+        }
+        return count;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
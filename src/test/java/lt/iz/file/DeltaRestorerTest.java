@@ -0,0 +1,200 @@
+package lt.iz.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaRestorerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesOnlyFilesWhichDiffer() throws IOException {
+        Map<String, File> sources = newSources();
+        File archive = new File(folder.getRoot(), "nano-db-1.zip");
+        Archiver.compress(archive, "nano-db-1", sources, null, 1);
+        Map<String, File> targets = copyOf(sources);
+        File eventStore = targets.get("eventstore");
+        File mongo = targets.get("mongo");
+        byte[] sameSize = Files.readAllBytes(new File(mongo, "collection.wt").toPath());
+        sameSize[100] ^= 1;
+        Files.write(new File(mongo, "collection.wt").toPath(), sameSize);
+        Files.write(new File(mongo, "index.wt").toPath(), randomBytes(10, 9));
+        Files.delete(new File(eventStore, "chunk-000001.000000").toPath());
+
+        DeltaRestorer.Result result = new DeltaRestorer(2).restore(archive, targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(2, result.getWritten());
+        assertEquals(3, result.getUnchanged());
+        assertEquals(1, result.getDeleted());
+        assertEquals(2000 + 300000, result.getBytes());
+    }
+
+    @Test
+    public void deletesFilesAndDirectoriesNotInBackup() throws IOException {
+        Map<String, File> sources = newSources();
+        File archive = new File(folder.getRoot(), "nano-db-1.zip");
+        Archiver.compress(archive, "nano-db-1", sources, null, 1);
+        Map<String, File> targets = copyOf(sources);
+        File eventStore = targets.get("eventstore");
+        File mongo = targets.get("mongo");
+        Files.write(new File(eventStore, "chunk-000002.000000").toPath(), randomBytes(100, 10));
+        Files.createDirectories(new File(mongo, "diagnostic.data/nested").toPath());
+        Files.write(new File(mongo, "diagnostic.data/nested/metrics").toPath(), randomBytes(100, 11));
+        Files.write(new File(mongo, "journal/log.2").toPath(), randomBytes(100, 12));
+        File outside = folder.newFolder("outside");
+        Files.write(new File(outside, "kept").toPath(), randomBytes(100, 13));
+        Files.createSymbolicLink(new File(mongo, "link").toPath(), outside.toPath());
+
+        DeltaRestorer.Result result = new DeltaRestorer(2).restore(archive, targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(4, result.getDeleted());
+        assertEquals(0, result.getWritten());
+        assertTrue(new File(outside, "kept").exists());
+    }
+
+    @Test
+    public void replacesFileAndDirectoryOfOtherType() throws IOException {
+        Map<String, File> sources = newSources();
+        File archive = new File(folder.getRoot(), "nano-db-1.zip");
+        Archiver.compress(archive, "nano-db-1", sources, null, 1);
+        Map<String, File> targets = copyOf(sources);
+        File mongo = targets.get("mongo");
+        deleteTree(new File(mongo, "journal"));
+        Files.write(new File(mongo, "journal").toPath(), randomBytes(100, 14));
+        Files.delete(new File(mongo, "collection.wt").toPath());
+        Files.createDirectories(new File(mongo, "collection.wt/nested").toPath());
+
+        DeltaRestorer.Result result = new DeltaRestorer(1).restore(archive, targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(2, result.getDeleted());
+        assertEquals(2, result.getWritten());
+    }
+
+    @Test
+    public void restoresIncrementalManifestFromArchivesOfChain() throws IOException {
+        Map<String, File> sources = newSources();
+        File first = new File(folder.getRoot(), "nano-db-1.zip");
+        File second = new File(folder.getRoot(), "nano-db-2.zip");
+        Manifest previous = Archiver.compressIncremental(first, "nano-db-1", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(2000, 15));
+        Files.delete(new File(sources.get("eventstore"), "chunk-000001.000000").toPath());
+        Manifest manifest = Archiver.compressIncremental(second, "nano-db-2", sources, null, previous, first.getName(), 1);
+        Map<String, File> targets = copyOf(sources);
+        Files.write(new File(targets.get("eventstore"), "chunk-000001.000000").toPath(), randomBytes(100, 16));
+        Files.write(new File(targets.get("mongo"), "collection.wt").toPath(), randomBytes(2000, 17));
+
+        DeltaRestorer.Result result = new DeltaRestorer(2).restore(manifest, folder.getRoot(), targets);
+
+        assertSameFiles(sources, targets);
+        assertEquals(1, result.getWritten());
+        assertEquals(1, result.getDeleted());
+        assertEquals(3, result.getUnchanged());
+    }
+
+    @Test
+    public void restoresOnlyMappedTargets() throws IOException {
+        Map<String, File> sources = newSources();
+        File archive = new File(folder.getRoot(), "nano-db-1.zip");
+        Archiver.compress(archive, "nano-db-1", sources, null, 1);
+        File mongo = folder.newFolder();
+        Map<String, File> targets = new LinkedHashMap<>();
+        targets.put("mongo", mongo);
+
+        DeltaRestorer.Result result = new DeltaRestorer(2).restore(archive, targets);
+
+        assertSameFiles(sources.get("mongo"), mongo);
+        assertEquals(3, result.getWritten());
+    }
+
+    private Map<String, File> newSources() throws IOException {
+        File eventStore = folder.newFolder("eventstore");
+        File mongo = folder.newFolder("mongo");
+        Files.createDirectories(new File(mongo, "journal").toPath());
+        Files.write(new File(eventStore, "chunk-000000.000000").toPath(), randomBytes(300000, 1));
+        Files.write(new File(eventStore, "chunk-000001.000000").toPath(), randomBytes(300000, 2));
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(2000, 3));
+        Files.write(new File(mongo, "journal/log.1").toPath(), randomBytes(1000, 4));
+        Files.write(new File(mongo, "empty.wt").toPath(), new byte[0]);
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("eventstore", eventStore);
+        sources.put("mongo", mongo);
+        return sources;
+    }
+
+    private Map<String, File> copyOf(Map<String, File> sources) throws IOException {
+        Map<String, File> targets = new LinkedHashMap<>();
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            File target = folder.newFolder("live-" + source.getKey());
+            copyTree(source.getValue(), target);
+            targets.put(source.getKey(), target);
+        }
+        return targets;
+    }
+
+    private static void copyTree(File source, File target) throws IOException {
+        for (File child : source.listFiles()) {
+            File targetChild = new File(target, child.getName());
+            if (child.isDirectory()) {
+                Files.createDirectories(targetChild.toPath());
+                copyTree(child, targetChild);
+            } else {
+                Files.copy(child.toPath(), targetChild.toPath());
+            }
+        }
+    }
+
+    private static void deleteTree(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteTree(child);
+        }
+        Files.delete(file.toPath());
+    }
+
+    private static void assertSameFiles(Map<String, File> sources, Map<String, File> targets) throws IOException {
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            assertSameFiles(source.getValue(), targets.get(source.getKey()));
+        }
+    }
+
+    private static void assertSameFiles(File source, File target) throws IOException {
+        String[] names = source.list();
+        Arrays.sort(names);
+        String[] targetNames = target.list();
+        Arrays.sort(targetNames);
+        assertArrayEquals(source.toString(), names, targetNames);
+        for (String name : names) {
+            File file = new File(source, name);
+            File targetFile = new File(target, name);
+            assertEquals(name, file.isDirectory(), targetFile.isDirectory());
+            if (file.isDirectory()) {
+                assertSameFiles(file, targetFile);
+            } else {
+                assertArrayEquals(name, Files.readAllBytes(file.toPath()), Files.readAllBytes(targetFile.toPath()));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,135 @@
+package lt.iz.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicatorTest {
+
+    private static final int PART_SIZE_MB = Replicator.MIN_PART_SIZE_MB;
+    private static final int PART_SIZE = PART_SIZE_MB << 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replicatesArchiveWhileItIsWritten() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        File replicaDir = folder.newFolder("replica");
+        File archive = new File(backupDir, "nano-db-1.zip");
+
+        try (Replicator replicator = new Replicator(new DirectoryReplicaTarget(replicaDir), backupDir, 2, PART_SIZE_MB)) {
+            LongConsumer tracked = replicator.track(archive);
+            AtomicLong finished = new AtomicLong();
+            LongConsumer listener = length -> {
+                finished.set(length);
+                tracked.accept(length);
+            };
+            Archiver.compress(archive, "nano-db-1", newSources(), null, 2, CodecPolicy.of(Codec.DEFAULT), listener);
+            assertTrue(finished.get() > PART_SIZE * 2);
+            replicator.finish(archive);
+            replicator.sync(Collections.singletonList(archive), Collections.emptyList());
+            assertEquals(archive.length(), replicator.getBytes());
+        }
+
+        assertArrayEquals(Files.readAllBytes(archive.toPath()), Files.readAllBytes(new File(replicaDir, archive.getName()).toPath()));
+        assertEquals(Collections.singletonMap(archive.getName(), archive.length()),
+            new DirectoryReplicaTarget(replicaDir).list("", true));
+    }
+
+    @Test
+    public void resumesUploadSkippingPartsAlreadyUploaded() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        File replicaDir = folder.newFolder("replica");
+        File archive = new File(backupDir, "nano-db-1.zip");
+        byte[] data = randomBytes(PART_SIZE * 2 + 1000, 1);
+        Files.write(archive.toPath(), data);
+
+        DirectoryReplicaTarget target = new DirectoryReplicaTarget(replicaDir);
+        ReplicaTarget.Upload interrupted = target.startUpload(archive.getName());
+        target.uploadPart(interrupted, 1, Arrays.copyOfRange(data, 0, PART_SIZE));
+        target.uploadPart(interrupted, 2, randomBytes(PART_SIZE, 2));
+
+        ReplicaTarget.Upload resumed = target.startUpload(archive.getName());
+        assertEquals(Replicator.tag(Arrays.copyOfRange(data, 0, PART_SIZE)), resumed.parts.get(1));
+        assertEquals(2, resumed.parts.size());
+
+        try (Replicator replicator = new Replicator(target, backupDir, 2, PART_SIZE_MB)) {
+            replicator.sync(Collections.singletonList(archive), Collections.emptyList());
+            assertEquals(data.length - PART_SIZE, replicator.getBytes());
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(new File(replicaDir, archive.getName()).toPath()));
+        assertEquals(Collections.singletonMap(archive.getName(), (long) data.length), target.list("", true));
+    }
+
+    @Test
+    public void fetchesBackupChainMissingLocally() throws IOException {
+        File backupDir = folder.newFolder("backup");
+        File replicaDir = folder.newFolder("replica");
+        Map<String, File> sources = newSources();
+        File first = new File(backupDir, "nano-db-1.zip");
+        File second = new File(backupDir, "nano-db-2.zip");
+        Manifest manifest = Archiver.compressIncremental(first, "nano-db-1", sources, null, null, null, 1);
+        Files.write(new File(sources.get("mongo"), "collection.wt").toPath(), randomBytes(1000, 3));
+        Archiver.compressIncremental(second, "nano-db-2", sources, null, manifest, first.getName(), 1);
+        byte[] firstData = Files.readAllBytes(first.toPath());
+        byte[] secondData = Files.readAllBytes(second.toPath());
+
+        try (Replicator replicator = new Replicator(new DirectoryReplicaTarget(replicaDir), backupDir, 2, PART_SIZE_MB)) {
+            replicator.sync(Arrays.asList(first, second), Collections.emptyList());
+        }
+        Files.delete(first.toPath());
+        Files.delete(second.toPath());
+
+        try (Replicator fetcher = new Replicator(new DirectoryReplicaTarget(replicaDir), backupDir, 2, PART_SIZE_MB)) {
+            assertEquals(Arrays.asList("nano-db-1", "nano-db-2"), sorted(fetcher.listArchives()));
+            List<File> fetched = fetcher.fetchArchive("nano-db-2");
+            assertEquals(Arrays.asList(second, first), fetched);
+        }
+
+        assertArrayEquals(firstData, Files.readAllBytes(first.toPath()));
+        assertArrayEquals(secondData, Files.readAllBytes(second.toPath()));
+        assertFalse(new File(backupDir, second.getName() + ".download").exists());
+    }
+
+    private Map<String, File> newSources() throws IOException {
+        File eventStore = folder.newFolder("eventstore");
+        File mongo = folder.newFolder("mongo");
+        Files.write(new File(eventStore, "chunk-000000.000000").toPath(), randomBytes(PART_SIZE * 2 + 12345, 4));
+        Files.write(new File(mongo, "collection.wt").toPath(), randomBytes(1000, 5));
+        Files.write(new File(mongo, "empty.wt").toPath(), new byte[0]);
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("eventstore", eventStore);
+        sources.put("mongo", mongo);
+        return sources;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static List<String> sorted(List<String> names) {
+        Collections.sort(names);
+        return names;
+    }
+}
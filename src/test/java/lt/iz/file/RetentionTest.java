@@ -0,0 +1,112 @@
+package lt.iz.file;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetentionTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 10, 5, 0, 30);
+
+    @Test
+    public void prunesArchivesOfIncrementalChainNotReferencedByKeptBackups() throws IOException {
+        List<Catalog.Entry> entries = new ArrayList<>();
+        Map<String, Set<String>> references = new HashMap<>();
+        for (int i = 1; i <= 6; i++) {
+            entries.add(archive("nano-db-" + i, START.plusHours(i), i == 1 ? null : "nano-db-" + (i - 1)));
+        }
+        references.put("nano-db-6", names("nano-db-6", "nano-db-4", "nano-db-1"));
+        references.put("nano-db-5", names("nano-db-5", "nano-db-4", "nano-db-1"));
+
+        List<Catalog.Entry> pruned = new Retention(2, 0, 0, 0).resolvePruned(entries, false, referencesOf(references));
+
+        assertEquals(Arrays.asList("nano-db-2", "nano-db-3"), names(pruned));
+    }
+
+    @Test
+    public void keepsOnlyLatestOfIncrementalChainWhenAllFilesChanged() throws IOException {
+        List<Catalog.Entry> entries = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            entries.add(archive("nano-db-" + i, START.plusHours(i), i == 1 ? null : "nano-db-" + (i - 1)));
+        }
+
+        List<Catalog.Entry> pruned = new Retention(1, 0, 0, 0).resolvePruned(entries, false,
+            referencesOf(Collections.emptyMap()));
+
+        assertEquals(Arrays.asList("nano-db-1", "nano-db-2", "nano-db-3"), names(pruned));
+    }
+
+    @Test
+    public void keepsLatestBackupOfEachPeriod() throws IOException {
+        List<Catalog.Entry> entries = Arrays.asList(
+            archive("nano-db-1", START.minusDays(8), null),
+            archive("nano-db-2", START.minusDays(2), null),
+            archive("nano-db-3", START.minusDays(1).minusHours(1), null),
+            archive("nano-db-4", START.minusDays(1), null),
+            archive("nano-db-5", START, null),
+            archive("nano-db-6", START.plusMinutes(10), null));
+
+        List<Catalog.Entry> pruned = new Retention(0, 0, 3, 2).resolvePruned(entries, false,
+            referencesOf(Collections.emptyMap()));
+
+        assertEquals(Arrays.asList("nano-db-1", "nano-db-2", "nano-db-5"), names(pruned));
+    }
+
+    @Test
+    public void limitsRepositorySnapshotsCountingPendingSnapshot() throws IOException {
+        List<Catalog.Entry> entries = Arrays.asList(
+            snapshot("nano-db-1", START.plusHours(1)),
+            archive("nano-db-2", START.plusHours(2), null),
+            snapshot("nano-db-3", START.plusHours(3)),
+            snapshot("nano-db-4", START.plusHours(4)));
+
+        assertEquals(Arrays.asList("nano-db-1", "nano-db-3"), names(new Retention(0, 0, 0, 0, 2)
+            .resolvePruned(entries, true, referencesOf(Collections.emptyMap()))));
+        assertEquals(Arrays.asList("nano-db-1"), names(new Retention(0, 0, 0, 0, 2)
+            .resolvePruned(entries, false, referencesOf(Collections.emptyMap()))));
+        assertEquals(Arrays.asList("nano-db-1", "nano-db-2", "nano-db-3"), names(new Retention(1, 0, 0, 0, 2)
+            .resolvePruned(entries, false, referencesOf(Collections.emptyMap()))));
+    }
+
+    @Test
+    public void keepsAllBackupsWhenDisabled() throws IOException {
+        List<Catalog.Entry> entries = Arrays.asList(
+            archive("nano-db-1", START, null),
+            archive("nano-db-2", START.plusHours(1), "nano-db-1"));
+
+        assertEquals(Collections.emptyList(), new Retention(0, 0, 0, 0).resolvePruned(entries, false,
+            referencesOf(Collections.emptyMap())));
+    }
+
+    private static Retention.References referencesOf(Map<String, Set<String>> references) {
+        return entry -> references.getOrDefault(entry.name, Collections.singleton(entry.name));
+    }
+
+    private static Catalog.Entry archive(String name, LocalDateTime created, String parent) {
+        return new Catalog.Entry(name, Catalog.ARCHIVE, created, 100, "es,mongo", Catalog.UNVERIFIED, parent);
+    }
+
+    private static Catalog.Entry snapshot(String name, LocalDateTime created) {
+        return new Catalog.Entry(name, Catalog.SNAPSHOT, created, 100, "es,mongo", Catalog.UNVERIFIED, null);
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private static List<String> names(List<Catalog.Entry> entries) {
+        return entries.stream().map(e -> e.name).collect(Collectors.toList());
+    }
+}
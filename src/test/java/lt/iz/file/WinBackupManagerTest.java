@@ -0,0 +1,196 @@
+package lt.iz.file;
+
+import com.google.common.hash.Hashing;
+import lt.iz.Action;
+import lt.iz.Database;
+import lt.iz.Params;
+import lt.iz.service.ServiceManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WinBackupManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> stagedAtStop = Collections.synchronizedList(new ArrayList<>());
+    private File eventStoreDir;
+    private File mongoDir;
+    private File backupDir;
+
+    @Before
+    public void setUp() throws IOException {
+        eventStoreDir = folder.newFolder("es");
+        mongoDir = folder.newFolder("mongo");
+        backupDir = folder.newFolder("backup");
+        Files.createDirectories(new File(mongoDir, "journal").toPath());
+        Files.write(new File(eventStoreDir, "chunk-000000.000000").toPath(), randomBytes(300000, 1));
+        Files.write(new File(mongoDir, "collection.wt").toPath(), randomBytes(2000, 2));
+        Files.write(new File(mongoDir, "journal/log.1").toPath(), randomBytes(1000, 3));
+    }
+
+    @Test
+    public void swapsStagingDirectoriesWhileServicesAreStopped() throws Exception {
+        Map<String, String> eventStoreFiles = readTree(eventStoreDir);
+        Map<String, String> mongoFiles = readTree(mongoDir);
+        backup();
+        Files.write(new File(eventStoreDir, "chunk-000001.000000").toPath(), randomBytes(1000, 4));
+        Files.write(new File(mongoDir, "collection.wt").toPath(), randomBytes(2000, 5));
+
+        newManager(RestoreMode.STAGED, EnumSet.allOf(DatabaseType.class)).restoreLatest();
+
+        assertEquals(eventStoreFiles, readTree(eventStoreDir));
+        assertEquals(mongoFiles, readTree(mongoDir));
+        assertEquals(new HashSet<>(Arrays.asList("stop es", "stop mongo", "start es", "start mongo")), new HashSet<>(events));
+        assertTrue(events.indexOf("stop es") < events.indexOf("start es"));
+        assertTrue(events.indexOf("stop mongo") < events.indexOf("start mongo"));
+        assertEquals(new HashSet<>(Arrays.asList("es " + eventStoreFiles, "mongo " + mongoFiles)),
+            new HashSet<>(stagedAtStop));
+        assertFalse(new File(folder.getRoot(), "es.restore-staging").exists());
+        assertFalse(new File(folder.getRoot(), "mongo.restore-staging").exists());
+        assertEquals(new HashSet<>(Arrays.asList("backup", "es", "mongo")), new HashSet<>(Arrays.asList(folder.getRoot().list())));
+    }
+
+    @Test
+    public void swapsOnlySelectedDatabase() throws Exception {
+        Map<String, String> mongoFiles = readTree(mongoDir);
+        backup();
+        Files.write(new File(eventStoreDir, "chunk-000001.000000").toPath(), randomBytes(1000, 4));
+        Files.write(new File(mongoDir, "collection.wt").toPath(), randomBytes(2000, 5));
+        Map<String, String> eventStoreFiles = readTree(eventStoreDir);
+
+        newManager(RestoreMode.STAGED, EnumSet.of(DatabaseType.MONGO)).restoreLatest();
+
+        assertEquals(eventStoreFiles, readTree(eventStoreDir));
+        assertEquals(mongoFiles, readTree(mongoDir));
+        assertEquals(Arrays.asList("stop mongo", "start mongo"), events);
+    }
+
+    @Test
+    public void keepsServicesRunningIfStagingExtractionFails() throws Exception {
+        backup();
+        File archive = backupDir.listFiles(f -> f.getName().endsWith(".zip"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(archive, "rw")) {
+            file.seek(file.length() / 2);
+            int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xFF);
+        }
+        Files.write(new File(mongoDir, "collection.wt").toPath(), randomBytes(2000, 5));
+        Map<String, String> eventStoreFiles = readTree(eventStoreDir);
+        Map<String, String> mongoFiles = readTree(mongoDir);
+
+        try {
+            newManager(RestoreMode.STAGED, EnumSet.allOf(DatabaseType.class)).restoreLatest();
+            fail("Corrupt archive restored.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is corrupt"));
+        }
+
+        assertEquals(Collections.emptyList(), events);
+        assertEquals(eventStoreFiles, readTree(eventStoreDir));
+        assertEquals(mongoFiles, readTree(mongoDir));
+    }
+
+    private void backup() throws IOException, InterruptedException {
+        Params params = newParams();
+        params.backupMode = BackupMode.STREAM;
+        new WinBackupManager(params, new RecordingServiceManager()).backup();
+        events.clear();
+    }
+
+    private WinBackupManager newManager(RestoreMode restoreMode, EnumSet<DatabaseType> databases) {
+        Params params = newParams();
+        params.restoreMode = restoreMode;
+        params.databases = databases;
+        return new WinBackupManager(params, new RecordingServiceManager());
+    }
+
+    private Params newParams() {
+        return new Params(Action.RESTORE, backupDir, new Database("es", eventStoreDir), new Database("mongo", mongoDir));
+    }
+
+    /**
+     * Returns hash of every file by path relative to directory, directories map to {@code D}.
+     */
+    private static Map<String, String> readTree(File directory) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        readTree(directory, "", files);
+        return files;
+    }
+
+    private static void readTree(File directory, String prefix, Map<String, String> files) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                files.put(path, "D");
+                readTree(child, path + "/", files);
+            } else {
+                files.put(path, Hashing.sha256().hashBytes(Files.readAllBytes(child.toPath())).toString());
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Records service transitions and content of staging directory when its service is stopped.
+     */
+    private class RecordingServiceManager implements ServiceManager {
+
+        @Override
+        public void startEventStoreService() {
+            events.add("start es");
+        }
+
+        @Override
+        public void stopEventStoreService() throws IOException {
+            events.add("stop es");
+            recordStaging("es");
+        }
+
+        @Override
+        public void startMongoService() {
+            events.add("start mongo");
+        }
+
+        @Override
+        public void stopMongoService() throws IOException {
+            events.add("stop mongo");
+            recordStaging("mongo");
+        }
+
+        private void recordStaging(String name) throws IOException {
+            File staging = new File(folder.getRoot(), name + ".restore-staging");
+            if (staging.exists()) stagedAtStop.add(name + " " + readTree(staging));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package lt.iz.file;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesStoredAndDeflatedEntries() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("root/empty", new byte[0]);
+        files.put("root/stored", "stored content".getBytes("UTF-8"));
+        files.put("root/deflated", compressibleBytes(100000));
+        File archive = folder.newFile("entries.zip");
+
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            writer.putDirectory("root", System.currentTimeMillis());
+            putStored(writer, "root/empty", files.get("root/empty"), 0);
+            putStored(writer, "root/stored", files.get("root/stored"), 0);
+            putDeflated(writer, "root/deflated", files.get("root/deflated"), 0);
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(4, zip.size());
+            assertTrue(zip.getEntry("root/").isDirectory());
+        }
+        assertEntries(archive, files);
+    }
+
+    @Test
+    public void writesForcedZip64Entry() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("zip64-stored", randomBytes(5000, 1));
+        files.put("zip64-deflated", compressibleBytes(200000));
+        files.put("regular", randomBytes(100, 2));
+        File archive = folder.newFile("zip64.zip");
+
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            putStored(writer, "zip64-stored", files.get("zip64-stored"), 1L << 32);
+            putDeflated(writer, "zip64-deflated", files.get("zip64-deflated"), 1L << 32);
+            putStored(writer, "regular", files.get("regular"), 0);
+        }
+
+        assertEntries(archive, files);
+    }
+
+    @Test
+    public void writesZip64EndRecordForManyEntries() throws IOException {
+        int count = 0x10000 + 10;
+        File archive = folder.newFile("many.zip");
+
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            for (int i = 0; i < count; i++) {
+                putStored(writer, "entry-" + i, new byte[]{(byte) i}, 0);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(count, zip.size());
+            ZipEntry last = zip.getEntry("entry-" + (count - 1));
+            try (InputStream in = zip.getInputStream(last)) {
+                assertArrayEquals(new byte[]{(byte) (count - 1)}, ByteStreams.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void reportsFinishedLength() throws IOException {
+        File archive = folder.newFile("finished.zip");
+        long[] finished = new long[1];
+
+        try (ZipWriter writer = new ZipWriter(archive, length -> finished[0] = length)) {
+            putStored(writer, "first", randomBytes(1000, 3), 0);
+            long first = finished[0];
+            assertTrue(first > 1000);
+            putStored(writer, "second", randomBytes(1000, 4), 0);
+            assertTrue(finished[0] > first + 1000);
+        }
+        assertTrue(archive.length() > finished[0]);
+    }
+
+    @Test
+    public void compressesFilesOfSeveralBlocksToSingleDeflateStream() throws IOException {
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("root/empty", write("empty", new byte[0]));
+        sources.put("root/small", write("small", randomBytes(1000, 5)));
+        sources.put("root/random", write("random", randomBytes(ParallelCompressor.BLOCK_SIZE * 3 + 12345, 6)));
+        sources.put("root/compressible", write("compressible", compressibleBytes(ParallelCompressor.BLOCK_SIZE * 2 + 777)));
+        byte[] zeros = new byte[ParallelCompressor.BLOCK_SIZE * 4 + 100];
+        System.arraycopy(randomBytes(5000, 7), 0, zeros, ParallelCompressor.BLOCK_SIZE * 2, 5000);
+        sources.put("root/zeros", write("zeros", zeros));
+        File archive = new File(folder.getRoot(), "parallel.zip");
+
+        for (Codec codec : Arrays.asList(Codec.DEFAULT, Codec.STORE)) {
+            try (ParallelCompressor compressor = new ParallelCompressor(archive, 4, CodecPolicy.of(codec))) {
+                compressor.addDirectory("root", System.currentTimeMillis());
+                for (Map.Entry<String, File> source : sources.entrySet()) {
+                    compressor.addFile(source.getValue(), source.getKey());
+                }
+            }
+
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                files.put(source.getKey(), Files.readAllBytes(source.getValue().toPath()));
+            }
+            assertEntries(archive, files);
+            try (ZipFile zip = new ZipFile(archive)) {
+                assertEquals(codec.getMethod(), zip.getEntry("root/random").getMethod());
+            }
+        }
+    }
+
+    @Test
+    public void droppedEntryIsNotInCentralDirectory() throws IOException {
+        File archive = folder.newFile("dropped.zip");
+        Map<String, byte[]> files = Collections.singletonMap("kept", randomBytes(100, 8));
+
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            putStored(writer, "dropped", randomBytes(100, 9), 0);
+            putStored(writer, "kept", files.get("kept"), 0);
+            writer.dropEntry("dropped");
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertNull(zip.getEntry("dropped"));
+        }
+        assertEntries(archive, files);
+    }
+
+    /**
+     * Checks entries by central directory with {@link ZipFile} and by local headers with {@link ZipInputStream}.
+     */
+    private static void assertEntries(File archive, Map<String, byte[]> files) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                ZipEntry entry = zip.getEntry(file.getKey());
+                assertNotNull(file.getKey(), entry);
+                assertEquals(file.getKey(), file.getValue().length, entry.getSize());
+                assertEquals(file.getKey(), crc(file.getValue()), entry.getCrc());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(file.getKey(), file.getValue(), ByteStreams.toByteArray(in));
+                }
+            }
+        }
+
+        int found = 0;
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] content = ByteStreams.toByteArray(in);
+                byte[] expected = files.get(entry.getName());
+                if (expected == null) continue;
+                assertArrayEquals(entry.getName(), expected, content);
+                assertEquals(entry.getName(), crc(expected), entry.getCrc());
+                found++;
+            }
+        }
+        assertTrue(found >= files.size());
+    }
+
+    private static void putStored(ZipWriter writer, String name, byte[] content, long sizeHint) throws IOException {
+        writer.beginEntry(name, System.currentTimeMillis(), ZipEntry.STORED, 0, sizeHint);
+        writer.write(content, 0, content.length);
+        writer.endEntry(crc(content), content.length);
+    }
+
+    private static void putDeflated(ZipWriter writer, String name, byte[] content, long sizeHint) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        writer.beginEntry(name, System.currentTimeMillis(), ZipEntry.DEFLATED, 0, sizeHint);
+        writer.write(compressed.toByteArray(), 0, compressed.size());
+        writer.endEntry(crc(content), content.length);
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] compressibleBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) ("nano-db-manager ".charAt(i % 16) + i / 4096 % 3);
+        return bytes;
+    }
+}